@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.portal.Socket;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link DefaultServer} exposing its protected methods and opening sockets
+ * over in-memory fakes.
+ * <p>
+ * It deliberately doesn't override the protected methods so that the server
+ * behaves as it does without the subclass.
+ * <p>
+ * To run all the benchmarks in this module,
+ * <p>
+ * {@code $ mvn package && java -jar target/benchmarks.jar}
+ * <p>
+ * Give a regular expression to run only some of them, e.g.
+ * {@code java -jar target/benchmarks.jar Broadcast -p sockets=10000}.
+ *
+ * @author Donghwan Kim
+ */
+public class BenchmarkServer extends DefaultServer {
+
+	private Socket lastSocket;
+
+	public BenchmarkServer() {
+		socketAction(new Action<Socket>() {
+			@Override
+			public void on(Socket socket) {
+				lastSocket = socket;
+			}
+		});
+	}
+
+	public Map<String, String> callParseURI(String uri) {
+		return parseURI(uri);
+	}
+
+	public Map<String, Object> callParseEvent(String text) {
+		return parseEvent(text);
+	}
+
+	public String callStringifyEvent(Map<String, Object> event) {
+		return stringifyEvent(event);
+	}
+
+	/**
+	 * Returns a URI opening a socket with the given transport.
+	 */
+	public static String openURI(String transport) {
+		return "/portal?when=open&transport=" + transport + "&id=" + UUID.randomUUID() + "&heartbeat=false&_=1391226546874";
+	}
+
+	/**
+	 * Opens a socket over WebSocket.
+	 */
+	public Socket openWebSocket() {
+		websocketAction().on(new FakeServerWebSocket(openURI("ws")));
+		return lastSocket;
+	}
+
+	/**
+	 * Opens a socket over HTTP using the given transport.
+	 */
+	public Socket openHttp(String transport) {
+		httpAction().on(new FakeServerHttpExchange("GET", openURI(transport)));
+		return lastSocket;
+	}
+
+}
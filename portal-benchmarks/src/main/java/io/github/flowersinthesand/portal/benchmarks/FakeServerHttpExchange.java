@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.wes.Action;
+import io.github.flowersinthesand.wes.Data;
+import io.github.flowersinthesand.wes.HttpStatus;
+import io.github.flowersinthesand.wes.ServerHttpExchange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory {@link ServerHttpExchange} which only counts what is written.
+ * <p>
+ * The body is delivered as soon as a body action is attached. Close actions
+ * are not fired by {@link FakeServerHttpExchange#close()} but by
+ * {@link FakeServerHttpExchange#fireClose()} so that a long polling socket
+ * doesn't close between iterations.
+ *
+ * @author Donghwan Kim
+ */
+public class FakeServerHttpExchange implements ServerHttpExchange {
+
+	private final String method;
+	private final String uri;
+	private final String body;
+	private final Map<String, String> requestHeaders = new LinkedHashMap<>();
+	private final List<Action<Void>> closeActions = new ArrayList<>();
+	private Action<String> writeAction;
+	private HttpStatus status = HttpStatus.OK;
+	private long written;
+	private boolean closed;
+
+	public FakeServerHttpExchange(String method, String uri) {
+		this(method, uri, null);
+	}
+
+	public FakeServerHttpExchange(String method, String uri, String body) {
+		this.method = method;
+		this.uri = uri;
+		this.body = body;
+	}
+
+	public FakeServerHttpExchange requestHeader(String name, String value) {
+		requestHeaders.put(name, value);
+		return this;
+	}
+
+	@Override
+	public String uri() {
+		return uri;
+	}
+
+	@Override
+	public String method() {
+		return method;
+	}
+
+	@Override
+	public Set<String> requestHeaderNames() {
+		return requestHeaders.keySet();
+	}
+
+	@Override
+	public String requestHeader(String name) {
+		return requestHeaders.get(name);
+	}
+
+	@Override
+	public List<String> requestHeaders(String name) {
+		String value = requestHeaders.get(name);
+		return value != null ? Collections.singletonList(value) : Collections.<String> emptyList();
+	}
+
+	@Override
+	public ServerHttpExchange bodyAction(Action<Data> action) {
+		action.on(new Data(body != null ? body : ""));
+		return this;
+	}
+
+	@Override
+	public ServerHttpExchange setResponseHeader(String name, String value) {
+		return this;
+	}
+
+	@Override
+	public ServerHttpExchange setResponseHeader(String name, Iterable<String> value) {
+		return this;
+	}
+
+	@Override
+	public ServerHttpExchange write(String data) {
+		written += data.length();
+		if (writeAction != null) {
+			writeAction.on(data);
+		}
+		return this;
+	}
+
+	@Override
+	public ServerHttpExchange close() {
+		closed = true;
+		return this;
+	}
+
+	@Override
+	public ServerHttpExchange close(String data) {
+		return write(data).close();
+	}
+
+	@Override
+	public ServerHttpExchange setStatus(HttpStatus status) {
+		this.status = status;
+		return this;
+	}
+
+	@Override
+	public ServerHttpExchange closeAction(Action<Void> action) {
+		closeActions.add(action);
+		return this;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> clazz) {
+		return null;
+	}
+
+	/**
+	 * Sets an action to be called with data written to the response as if
+	 * the client receives it.
+	 */
+	public FakeServerHttpExchange writeAction(Action<String> action) {
+		this.writeAction = action;
+		return this;
+	}
+
+	/**
+	 * Fires the close actions as if the connection is closed.
+	 */
+	public void fireClose() {
+		for (Action<Void> action : closeActions) {
+			action.on(null);
+		}
+	}
+
+	/**
+	 * The number of characters written so far.
+	 */
+	public long written() {
+		return written;
+	}
+
+	public boolean closed() {
+		return closed;
+	}
+
+	public HttpStatus status() {
+		return status;
+	}
+
+}
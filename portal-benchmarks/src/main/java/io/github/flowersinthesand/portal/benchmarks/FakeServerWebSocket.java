@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.wes.Action;
+import io.github.flowersinthesand.wes.Data;
+import io.github.flowersinthesand.wes.ServerWebSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory {@link ServerWebSocket} which only counts what is sent.
+ *
+ * @author Donghwan Kim
+ */
+public class FakeServerWebSocket implements ServerWebSocket {
+
+	private final String uri;
+	private final List<Action<Data>> messageActions = new ArrayList<>();
+	private final List<Action<Void>> closeActions = new ArrayList<>();
+	private Action<String> sendAction;
+	private long sent;
+	private boolean closed;
+
+	public FakeServerWebSocket(String uri) {
+		this.uri = uri;
+	}
+
+	@Override
+	public String uri() {
+		return uri;
+	}
+
+	@Override
+	public ServerWebSocket close() {
+		if (!closed) {
+			closed = true;
+			for (Action<Void> action : closeActions) {
+				action.on(null);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public ServerWebSocket send(String data) {
+		sent += data.length();
+		if (sendAction != null) {
+			sendAction.on(data);
+		}
+		return this;
+	}
+
+	@Override
+	public ServerWebSocket messageAction(Action<Data> action) {
+		messageActions.add(action);
+		return this;
+	}
+
+	@Override
+	public ServerWebSocket closeAction(Action<Void> action) {
+		closeActions.add(action);
+		return this;
+	}
+
+	@Override
+	public ServerWebSocket errorAction(Action<Throwable> action) {
+		return this;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> clazz) {
+		return null;
+	}
+
+	/**
+	 * Sets an action to be called with a message sent to the client as if
+	 * the client receives it.
+	 */
+	public FakeServerWebSocket sendAction(Action<String> action) {
+		this.sendAction = action;
+		return this;
+	}
+
+	/**
+	 * Delivers the given message as if the client sends it.
+	 */
+	public void receive(String message) {
+		for (Action<Data> action : messageActions) {
+			action.on(new Data(message));
+		}
+	}
+
+	/**
+	 * The number of characters sent so far.
+	 */
+	public long sent() {
+		return sent;
+	}
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.DefaultMetrics;
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.portal.LatencyHistogram;
+import io.github.flowersinthesand.portal.Socket;
+import io.github.flowersinthesand.portal.Socket.Reply;
+import io.github.flowersinthesand.wes.Action;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Load test opening a large number of sockets over in-memory fakes against
+ * a {@link DefaultServer} in the same process.
+ * <p>
+ * Sockets are spread over ws, sse, streamxhr, longpollajax and
+ * longpolljsonp. Each simulated client sends an echo event and an event
+ * requiring reply in turn and waits for the answer before sending the next,
+ * and the server broadcasts an event to all of the socket periodically. A
+ * long polling client polls again as soon as it receives a response. At the
+ * end, it reports throughput, latency percentiles seen by clients by
+ * transport and retained heap per socket, which includes the fakes.
+ * <p>
+ * Options are given as {@code name=value} arguments:
+ * <ul>
+ * <li>{@code sockets}: the number of sockets, 20000 by default
+ * <li>{@code duration}: how long to run in seconds, 10 by default
+ * <li>{@code threads}: the number of threads sending events, 4 by default
+ * <li>{@code broadcast}: the interval of broadcast in milliseconds, 100 by
+ * default and 0 to disable
+ * <li>{@code sendThreads}: the number of threads of the send executor of the
+ * server, 0 by default to send synchronously
+ * </ul>
+ * <p>
+ * {@code $ java -Xmx4g -cp target/benchmarks.jar io.github.flowersinthesand.portal.benchmarks.LoadSimulator sockets=100000}
+ *
+ * @author Donghwan Kim
+ */
+public class LoadSimulator {
+
+	static final String[] TRANSPORTS = { "ws", "sse", "streamxhr", "longpollajax", "longpolljsonp" };
+
+	final ObjectMapper mapper = new ObjectMapper();
+	final DefaultServer server = new DefaultServer();
+	final DefaultMetrics metrics = new DefaultMetrics();
+	final ExecutorService pollers;
+	final Map<String, Stats> stats = new LinkedHashMap<>();
+	final int sockets;
+	final int duration;
+	final int threads;
+	final int broadcast;
+	final int sendThreads;
+	final List<Client> clients = new ArrayList<>();
+	volatile boolean running = true;
+
+	LoadSimulator(Map<String, String> options) {
+		this.sockets = option(options, "sockets", 20000);
+		this.duration = option(options, "duration", 10);
+		this.threads = option(options, "threads", 4);
+		this.broadcast = option(options, "broadcast", 100);
+		this.sendThreads = option(options, "sendThreads", 0);
+		this.pollers = Executors.newFixedThreadPool(threads);
+		for (String transport : TRANSPORTS) {
+			stats.put(transport, new Stats());
+		}
+	}
+
+	private static int option(Map<String, String> options, String name, int defaultValue) {
+		String value = options.get(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index < 0) {
+				throw new IllegalArgumentException("Option should be name=value: " + arg);
+			}
+			options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+		new LoadSimulator(options).run();
+	}
+
+	void run() throws Exception {
+		server.metrics(metrics);
+		if (sendThreads > 0) {
+			server.sendExecutor(Executors.newFixedThreadPool(sendThreads));
+		}
+		server.socketAction(new Action<Socket>() {
+			@Override
+			public void on(final Socket socket) {
+				socket.on("echo", new Action<Object>() {
+					@Override
+					public void on(Object data) {
+						socket.send("echo", data);
+					}
+				})
+				.on("question", new Action<Reply<Object>>() {
+					@Override
+					public void on(Reply<Object> reply) {
+						reply.done(reply.data());
+					}
+				});
+			}
+		});
+
+		long heap = usedHeap();
+		long start = System.nanoTime();
+		for (int i = 0; i < sockets; i++) {
+			Client client = newClient(TRANSPORTS[i % TRANSPORTS.length]);
+			client.open();
+			clients.add(client);
+		}
+		long opening = System.nanoTime() - start;
+		long heapPerSocket = (usedHeap() - heap) / Math.max(sockets, 1);
+		System.out.printf("Opened %d sockets in %d ms, retaining %d bytes per socket%n", 
+			sockets, TimeUnit.NANOSECONDS.toMillis(opening), heapPerSocket);
+
+		List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Worker(i), "simulator-" + i);
+			workers.add(worker);
+			worker.start();
+		}
+		Thread broadcaster = null;
+		if (broadcast > 0) {
+			broadcaster = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running) {
+						server.all().send("broadcast", System.nanoTime());
+						try {
+							Thread.sleep(broadcast);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}, "simulator-broadcast");
+			broadcaster.start();
+		}
+		start = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		running = false;
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (broadcaster != null) {
+			broadcaster.interrupt();
+			broadcaster.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		report(elapsed);
+		pollers.shutdownNow();
+		System.exit(0);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private void report(double elapsed) {
+		long sent = 0;
+		long received = 0;
+		System.out.printf("%-14s %8s %10s %10s %22s %22s %22s %12s%n", "transport", "sockets", "sent/s", "recv/s",
+			"echo p50/p99/p999 us", "reply p50/p99/p999 us", "bcast p50/p99/p999 us", "server p99 us");
+		for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+			Stats stats = entry.getValue();
+			DefaultMetrics.TransportMetrics transport = metrics.transports().get(entry.getKey());
+			sent += stats.sent.get();
+			received += stats.received.get();
+			System.out.printf("%-14s %8d %10.0f %10.0f %22s %22s %22s %12d%n", entry.getKey(), 
+				transport != null ? transport.openSockets() : 0, stats.sent.get() / elapsed, stats.received.get() / elapsed,
+				percentiles(stats.echo), percentiles(stats.reply), percentiles(stats.broadcast), 
+				transport != null ? transport.sendLatency().percentile(99) / 1000 : 0);
+		}
+		System.out.printf("Total: %.0f events/s sent and %.0f events/s received by clients in %.1f s%n", 
+			sent / elapsed, received / elapsed, elapsed);
+		System.out.printf("Server: %d open sockets, %d messages in long polling buffers, %d pending replies%n", 
+			metrics.openSockets(), metrics.longpollBuffered(), metrics.pendingReplies());
+	}
+
+	private static String percentiles(LatencyHistogram histogram) {
+		return histogram.percentile(50) / 1000 + "/" + histogram.percentile(99) / 1000 + "/" 
+			+ histogram.percentile(99.9) / 1000;
+	}
+
+	private Client newClient(String transport) {
+		switch (transport) {
+		case "ws":
+			return new WebSocketClient(transport);
+		case "sse":
+		case "streamxhr":
+			return new StreamClient(transport);
+		default:
+			return new LongpollClient(transport);
+		}
+	}
+
+	/**
+	 * Makes each of its clients send an event once the previous one is
+	 * answered.
+	 */
+	private class Worker implements Runnable {
+		final int index;
+
+		Worker(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				boolean sent = false;
+				for (int i = index; i < clients.size() && running; i += threads) {
+					sent |= clients.get(i).next();
+				}
+				if (!sent) {
+					Thread.yield();
+				}
+			}
+		}
+	}
+
+	private static class Stats {
+		final AtomicLong sent = new AtomicLong();
+		final AtomicLong received = new AtomicLong();
+		final LatencyHistogram echo = new LatencyHistogram();
+		final LatencyHistogram reply = new LatencyHistogram();
+		final LatencyHistogram broadcast = new LatencyHistogram();
+	}
+
+	private abstract class Client {
+		final String id = UUID.randomUUID().toString();
+		final String transport;
+		final Stats stats;
+		final AtomicBoolean waiting = new AtomicBoolean();
+		long sequence;
+
+		Client(String transport) {
+			this.transport = transport;
+			this.stats = LoadSimulator.this.stats.get(transport);
+		}
+
+		String uri(String when) {
+			return "/portal?when=" + when + "&transport=" + transport + "&id=" + id + "&heartbeat=false&callback=cb&_=1";
+		}
+
+		abstract void open();
+
+		abstract void send(String text);
+
+		/**
+		 * Sends the next event if the previous one is answered and returns
+		 * whether it's sent.
+		 */
+		boolean next() {
+			if (!waiting.compareAndSet(false, true)) {
+				return false;
+			}
+			boolean reply = sequence % 2 == 1;
+			String text = "{\"id\":\"" + sequence++ + "\",\"socket\":\"" + id + "\",\"type\":\"" + (reply ? "question" : "echo")
+				+ "\",\"data\":" + System.nanoTime() + ",\"reply\":" + reply + "}";
+			stats.sent.incrementAndGet();
+			send(text);
+			return true;
+		}
+
+		/**
+		 * Handles an event from the server and returns its id. The event is
+		 * scanned rather than parsed since it's done by the sending thread of
+		 * the server, which a real client doesn't hold up.
+		 */
+		String receive(String text) {
+			long now = System.nanoTime();
+			stats.received.incrementAndGet();
+			String type = string(text, text.indexOf("\"type\":\"") + 8);
+			// Data of reply is the data of the event replied to
+			long latency = now - number(text, text.lastIndexOf("\"data\":") + 7);
+			switch (type) {
+			case "echo":
+				stats.echo.record(latency);
+				waiting.set(false);
+				break;
+			case "reply":
+				stats.reply.record(latency);
+				waiting.set(false);
+				break;
+			case "broadcast":
+				stats.broadcast.record(latency);
+				break;
+			}
+			return string(text, text.indexOf("\"id\":\"") + 6);
+		}
+
+		private String string(String text, int start) {
+			return text.substring(start, text.indexOf('"', start));
+		}
+
+		private long number(String text, int start) {
+			long value = 0;
+			for (int i = start; i < text.length() && Character.isDigit(text.charAt(i)); i++) {
+				value = value * 10 + text.charAt(i) - '0';
+			}
+			return value;
+		}
+
+		void post(String text) {
+			server.httpAction().on(new FakeServerHttpExchange("POST", uri("send"), "data=" + text));
+		}
+	}
+
+	private class WebSocketClient extends Client {
+		FakeServerWebSocket ws;
+
+		WebSocketClient(String transport) {
+			super(transport);
+		}
+
+		@Override
+		void open() {
+			ws = new FakeServerWebSocket(uri("open"));
+			ws.sendAction(new Action<String>() {
+				@Override
+				public void on(String text) {
+					receive(text);
+				}
+			});
+			server.websocketAction().on(ws);
+		}
+
+		@Override
+		void send(String text) {
+			ws.receive(text);
+		}
+	}
+
+	private class StreamClient extends Client {
+		StreamClient(String transport) {
+			super(transport);
+		}
+
+		@Override
+		void open() {
+			FakeServerHttpExchange http = new FakeServerHttpExchange("GET", uri("open"));
+			http.writeAction(new Action<String>() {
+				@Override
+				public void on(String chunk) {
+					// Events are JSON without line break so that a frame has a line
+					int start = chunk.indexOf("data: ");
+					while (start >= 0) {
+						int end = chunk.indexOf('\n', start);
+						receive(chunk.substring(start + 6, end));
+						start = chunk.indexOf("data: ", end);
+					}
+				}
+			});
+			server.httpAction().on(http);
+		}
+
+		@Override
+		void send(String text) {
+			post(text);
+		}
+	}
+
+	private class LongpollClient extends Client {
+		LongpollClient(String transport) {
+			super(transport);
+		}
+
+		@Override
+		void open() {
+			server.httpAction().on(new FakeServerHttpExchange("GET", uri("open")));
+			poll("");
+		}
+
+		void poll(String lastEventIds) {
+			final FakeServerHttpExchange http = new FakeServerHttpExchange("GET", uri("poll") + "&lastEventIds=" + lastEventIds);
+			http.writeAction(new Action<String>() {
+				@Override
+				public void on(String payload) {
+					final StringBuilder ids = new StringBuilder();
+					for (String event : events(payload)) {
+						if (ids.length() > 0) {
+							ids.append(',');
+						}
+						ids.append(receive(event));
+					}
+					// Polls again in another thread as a browser does
+					pollers.execute(new Runnable() {
+						@Override
+						public void run() {
+							http.fireClose();
+							if (running) {
+								poll(ids.toString());
+							}
+						}
+					});
+				}
+			});
+			server.httpAction().on(http);
+		}
+
+		/**
+		 * Splits a response into events. Events have no brace in string.
+		 */
+		List<String> events(String payload) {
+			if (transport.equals("longpolljsonp")) {
+				try {
+					payload = mapper.readValue(payload.substring("cb(".length(), payload.length() - ");".length()), String.class);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			List<String> events = new ArrayList<>();
+			int depth = 0;
+			int start = 0;
+			for (int i = 0; i < payload.length(); i++) {
+				char c = payload.charAt(i);
+				if (c == '{' && depth++ == 0) {
+					start = i;
+				} else if (c == '}' && --depth == 0) {
+					events.add(payload.substring(start, i + 1));
+				}
+			}
+			return events;
+		}
+
+		@Override
+		void send(String text) {
+			post(text);
+		}
+	}
+
+}
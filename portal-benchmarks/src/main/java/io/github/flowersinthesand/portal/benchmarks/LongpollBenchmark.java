@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.Socket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Buffering events for a long polling socket and replaying them on poll
+ * request.
+ *
+ * @author Donghwan Kim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongpollBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	int bufferSize;
+
+	BenchmarkServer server;
+	Socket socket;
+	String pollURI;
+
+	@Setup
+	public void setup() {
+		server = new BenchmarkServer();
+		server.longpollBuffer(bufferSize, 1, TimeUnit.HOURS);
+		socket = server.openHttp("longpollajax");
+		// No poll request is pending, so events stay in the buffer
+		for (int i = 0; i < bufferSize; i++) {
+			socket.send("message", "Hello, World " + i);
+		}
+		// Acknowledges nothing so that every poll replays the whole buffer
+		pollURI = "/portal?when=poll&transport=longpollajax&id=" + socket.id() + "&lastEventIds=&_=1391226546874";
+	}
+
+	/**
+	 * Polls and receives all of the buffered events at once.
+	 */
+	@Benchmark
+	public long replay() {
+		FakeServerHttpExchange http = new FakeServerHttpExchange("GET", pollURI);
+		server.httpAction().on(http);
+		return http.written();
+	}
+
+	/**
+	 * Buffers an event evicting the oldest one from the full buffer.
+	 */
+	@Benchmark
+	public Socket buffer() {
+		return socket.send("message", "Hello, World");
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a URI and an event and stringifying an event.
+ *
+ * @author Donghwan Kim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+	BenchmarkServer server;
+	String uri;
+	String text;
+	Map<String, Object> event;
+
+	@Setup
+	public void setup() {
+		server = new BenchmarkServer();
+		uri = "/portal?when=poll&transport=longpollajax&id=0ad3c7e1-2d2c-4a1e-a4e2-5bbd1c1d35b8&heartbeat=20000"
+			+ "&lastEventIds=1a2b-1%2C1a2b-2%2C1a2b-3&callback=portal_1391226546874_1&_=1391226546874";
+		text = "{\"id\":\"1a2b-1\",\"type\":\"message\",\"data\":{\"text\":\"Hello, World\",\"room\":\"lobby\",\"count\":3},"
+			+ "\"reply\":false,\"socket\":\"0ad3c7e1-2d2c-4a1e-a4e2-5bbd1c1d35b8\"}";
+		event = new LinkedHashMap<>();
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("text", "Hello, World");
+		data.put("room", "lobby");
+		data.put("count", 3);
+		event.put("id", "1a2b-1");
+		event.put("type", "message");
+		event.put("data", data);
+		event.put("reply", false);
+	}
+
+	@Benchmark
+	public Map<String, String> parseURI() {
+		return server.callParseURI(uri);
+	}
+
+	/**
+	 * Parses a URI and reads all of the parameters, which are decoded lazily.
+	 */
+	@Benchmark
+	public int parseURIAndRead() {
+		int length = 0;
+		for (String value : server.callParseURI(uri).values()) {
+			length += value.length();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public Map<String, Object> parseEvent() {
+		return server.callParseEvent(text);
+	}
+
+	@Benchmark
+	public String stringifyEvent() {
+		return server.callStringifyEvent(event);
+	}
+
+}
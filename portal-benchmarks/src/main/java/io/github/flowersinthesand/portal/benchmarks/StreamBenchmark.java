@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.Socket;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending an event with data in JSON to a socket over stream transports,
+ * which is mostly framing it. Data of {@code multiline} and {@code large} has
+ * line breaks between values so that framing splits it into lines, which
+ * data stringified by {@link Socket#send(String, Object)} never has.
+ *
+ * @author Donghwan Kim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+	@Param({ "sse", "streamxhr", "streamiframe" })
+	String transport;
+	@Param({ "short", "multiline", "large" })
+	String data;
+
+	Socket socket;
+	String json;
+
+	@Setup
+	public void setup() {
+		socket = new BenchmarkServer().openHttp(transport);
+		switch (data) {
+		case "short":
+			json = "\"Hello, World\"";
+			break;
+		case "multiline":
+			json = "[\"first line\",\n\"second line\",\r\n\"third line\",\r\"fourth line\"]";
+			break;
+		case "large":
+			// 16KB in lines of 80 characters
+			char[] chars = new char[78];
+			Arrays.fill(chars, 'a');
+			String line = "\"" + new String(chars) + "\"";
+			StringBuilder builder = new StringBuilder("[").append(line);
+			for (int i = 1; i < 16 * 1024 / 80; i++) {
+				builder.append(",\n").append(line);
+			}
+			json = builder.append("]").toString();
+			break;
+		default:
+			throw new IllegalArgumentException(data);
+		}
+	}
+
+	@Benchmark
+	public Socket send() {
+		return socket.sendRaw("message", json);
+	}
+
+}
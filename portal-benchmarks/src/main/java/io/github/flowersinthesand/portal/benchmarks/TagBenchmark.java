@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.Server;
+import io.github.flowersinthesand.portal.Socket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending an event to sockets selected by tags from a large number of
+ * sockets. Every socket is in one of 1000 rooms and half of them are
+ * tagged with {@code admin}.
+ *
+ * @author Donghwan Kim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TagBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	int sockets;
+
+	Server server;
+
+	@Setup
+	public void setup() {
+		BenchmarkServer server = new BenchmarkServer();
+		for (int i = 0; i < sockets; i++) {
+			Socket socket = server.openWebSocket();
+			socket.tags().add("room-" + (i % 1000));
+			if (i % 2 == 0) {
+				socket.tags().add("admin");
+			}
+		}
+		this.server = server;
+	}
+
+	@Benchmark
+	public void byTag() {
+		server.byTag("room-7").send("message", "Hello, World");
+	}
+
+	@Benchmark
+	public void byTags() {
+		server.byTag("room-8", "admin").send("message", "Hello, World");
+	}
+
+	@Benchmark
+	public void byPopularTag() {
+		server.byTag("admin").send("message", "Hello, World");
+	}
+
+	@Benchmark
+	public void byUnknownTag() {
+		server.byTag("room-unknown").send("message", "Hello, World");
+	}
+
+}
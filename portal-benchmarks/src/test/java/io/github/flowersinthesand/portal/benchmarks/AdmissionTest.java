@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.wes.Action;
+import io.github.flowersinthesand.wes.HttpStatus;
+import io.github.flowersinthesand.wes.ServerHttpExchange;
+import io.github.flowersinthesand.wes.ServerWebSocket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Admission control of new sockets.
+ *
+ * @author Donghwan Kim
+ */
+public class AdmissionTest {
+
+	private final DefaultServer server = new DefaultServer();
+
+	@Test
+	public void maxSockets() {
+		server.maxSockets(1);
+		Client first = new Client(server);
+		Client second = new Client(server);
+		assertThat(first.socket(), notNullValue());
+		assertThat(second.socket(), nullValue());
+		assertThat(second.closed(), is(true));
+		first.close();
+		assertThat(new Client(server).socket(), notNullValue());
+	}
+
+	@Test
+	public void maxSocketsOfTransport() {
+		server.maxSockets("longpollajax", 1);
+		FakeServerHttpExchange first = open("longpollajax");
+		FakeServerHttpExchange second = open("longpollajax");
+		assertThat(first.status(), is(HttpStatus.OK));
+		assertThat(second.status(), is(HttpStatus.SERVICE_UNAVAILABLE));
+		assertThat(second.closed(), is(true));
+		// Other transports are not limited
+		assertThat(new Client(server).socket(), notNullValue());
+	}
+
+	@Test
+	public void maxOpenRate() {
+		server.maxOpenRate(1, 1, TimeUnit.MINUTES);
+		assertThat(new Client(server).socket(), notNullValue());
+		assertThat(new Client(server).socket(), nullValue());
+	}
+
+	@Test
+	public void closedWhileOpening() {
+		server.maxSockets(1);
+		// The connection is closed before the socket starts to listen to it
+		server.websocketAction().on(new FakeServerWebSocket(BenchmarkServer.openURI("ws")) {
+			@Override
+			public ServerWebSocket closeAction(Action<Void> action) {
+				super.closeAction(action);
+				action.on(null);
+				return this;
+			}
+		});
+		assertThat(new Client(server).socket(), notNullValue());
+	}
+
+	@Test
+	public void failedToOpen() {
+		server.maxSockets(1);
+		FakeServerHttpExchange http = new FakeServerHttpExchange("GET", BenchmarkServer.openURI("sse")) {
+			@Override
+			public ServerHttpExchange write(String data) {
+				throw new IllegalStateException("Connection reset");
+			}
+		};
+		try {
+			server.httpAction().on(http);
+			fail();
+		} catch (IllegalStateException e) {}
+		assertThat(http.status(), is(HttpStatus.INTERNAL_SERVER_ERROR));
+		assertThat(http.closed(), is(true));
+		assertThat(new Client(server).socket(), notNullValue());
+	}
+
+	private FakeServerHttpExchange open(String transport) {
+		FakeServerHttpExchange http = new FakeServerHttpExchange("GET", BenchmarkServer.openURI(transport));
+		server.httpAction().on(http);
+		return http;
+	}
+
+}
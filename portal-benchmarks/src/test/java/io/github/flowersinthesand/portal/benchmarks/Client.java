@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.portal.Socket;
+import io.github.flowersinthesand.wes.Action;
+import io.github.flowersinthesand.wes.VoidAction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Client of a socket over {@link FakeServerWebSocket} recording events the
+ * socket sends and whether it's closed.
+ *
+ * @author Donghwan Kim
+ */
+public class Client {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final FakeServerWebSocket ws;
+	private final List<Map<String, Object>> events = new CopyOnWriteArrayList<>();
+	private final Socket socket;
+	private volatile boolean closed;
+
+	/**
+	 * Opens a socket to the given server.
+	 */
+	public Client(DefaultServer server) {
+		final String id = UUID.randomUUID().toString();
+		this.ws = new FakeServerWebSocket("/portal?when=open&transport=ws&id=" + id + "&heartbeat=false&_=1391226546874");
+		ws.sendAction(new Action<String>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void on(String text) {
+				try {
+					events.add(mapper.readValue(text, Map.class));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		})
+		.closeAction(new VoidAction() {
+			@Override
+			public void on() {
+				closed = true;
+			}
+		});
+		final Socket[] found = new Socket[1];
+		// byId of a clustered server goes through the cluster
+		server.socketAction(new Action<Socket>() {
+			@Override
+			public void on(Socket socket) {
+				if (socket.id().equals(id)) {
+					found[0] = socket;
+				}
+			}
+		});
+		server.websocketAction().on(ws);
+		this.socket = found[0];
+	}
+
+	/**
+	 * The socket on the server, or {@code null} if it was not opened.
+	 */
+	public Socket socket() {
+		return socket;
+	}
+
+	/**
+	 * Data of events of the given type received so far in order.
+	 */
+	public List<Object> received(String type) {
+		List<Object> data = new ArrayList<>();
+		for (Map<String, Object> event : events) {
+			if (type.equals(event.get("type"))) {
+				data.add(event.get("data"));
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Events received so far in order.
+	 */
+	public List<Map<String, Object>> events() {
+		return events;
+	}
+
+	/**
+	 * Sends an event to the socket.
+	 */
+	public void send(String id, String type, Object data, boolean reply) {
+		Map<String, Object> event = new LinkedHashMap<>();
+		event.put("id", id);
+		event.put("type", type);
+		event.put("data", data);
+		event.put("reply", reply);
+		try {
+			ws.receive(mapper.writeValueAsString(event));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public boolean closed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the connection as if the client did.
+	 */
+	public void close() {
+		ws.close();
+	}
+
+}
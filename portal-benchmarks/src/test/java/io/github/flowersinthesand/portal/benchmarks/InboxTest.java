@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+/**
+ * Sockets dispatching received events through the dispatch executor.
+ *
+ * @author Donghwan Kim
+ */
+public class InboxTest {
+
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final DefaultServer server = new DefaultServer().dispatchExecutor(executor);
+	private final List<Object> dispatched = new CopyOnWriteArrayList<>();
+
+	private Client client() {
+		Client client = new Client(server);
+		client.socket().on("message", new Action<Object>() {
+			@Override
+			public void on(Object data) {
+				if ("error".equals(data)) {
+					throw new IllegalStateException();
+				}
+				dispatched.add(data);
+			}
+		})
+		.on("close", new Action<Object>() {
+			@Override
+			public void on(Object data) {
+				dispatched.add("close");
+			}
+		});
+		return client;
+	}
+
+	@Test
+	public void dispatchLater() {
+		Client client = client();
+		client.send("1", "message", "a", false);
+		assertThat(dispatched.isEmpty(), is(true));
+		executor.runAll();
+		assertThat(dispatched, is(Arrays.<Object> asList("a")));
+	}
+
+	@Test
+	public void inOrderWithClose() {
+		Client client = client();
+		List<Object> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			client.send(Integer.toString(i), "message", i, false);
+			expected.add(i);
+		}
+		client.close();
+		expected.add("close");
+		executor.runAll();
+		assertThat(dispatched, is(expected));
+	}
+
+	@Test
+	public void failingAction() {
+		Client client = client();
+		client.send("1", "message", "error", false);
+		client.send("2", "message", "b", false);
+		executor.runAll();
+		assertThat(dispatched, is(Arrays.<Object> asList("b")));
+	}
+
+}
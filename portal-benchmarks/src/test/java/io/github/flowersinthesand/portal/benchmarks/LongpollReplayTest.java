@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.Socket;
+import io.github.flowersinthesand.wes.Action;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Replay of messages not acknowledged by a long polling client.
+ *
+ * @author Donghwan Kim
+ */
+public class LongpollReplayTest {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final BenchmarkServer server = new BenchmarkServer();
+	private final String id = UUID.randomUUID().toString();
+	private final List<Map<String, Object>> received = new ArrayList<>();
+	private Socket socket;
+
+	private Socket open() {
+		server.httpAction().on(new FakeServerHttpExchange("GET", uri("open", null)));
+		server.byId(id, new Action<Socket>() {
+			@Override
+			public void on(Socket socket) {
+				LongpollReplayTest.this.socket = socket;
+			}
+		});
+		return socket;
+	}
+
+	/**
+	 * Sends a poll request acknowledging the given events and returns data
+	 * of events in the response if any.
+	 */
+	private List<Object> poll(String... lastEventIds) {
+		received.clear();
+		FakeServerHttpExchange http = new FakeServerHttpExchange("GET", uri("poll", lastEventIds));
+		http.writeAction(new Action<String>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void on(String text) {
+				try {
+					if (text.startsWith("[")) {
+						received.addAll(mapper.readValue(text, List.class));
+					} else {
+						received.add(mapper.readValue(text, Map.class));
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		server.httpAction().on(http);
+		return data();
+	}
+
+	private List<Object> data() {
+		List<Object> data = new ArrayList<>();
+		for (Map<String, Object> event : received) {
+			data.add(event.get("data"));
+		}
+		return data;
+	}
+
+	private String[] ids() {
+		List<String> ids = new ArrayList<>();
+		for (Map<String, Object> event : received) {
+			ids.add((String) event.get("id"));
+		}
+		return ids.toArray(new String[ids.size()]);
+	}
+
+	private String uri(String when, String[] lastEventIds) {
+		StringBuilder uri = new StringBuilder("/portal?when=").append(when)
+			.append("&transport=longpollajax&id=").append(id).append("&heartbeat=false");
+		if (lastEventIds != null) {
+			uri.append("&lastEventIds=");
+			for (int i = 0; i < lastEventIds.length; i++) {
+				uri.append(i > 0 ? "," : "").append(lastEventIds[i]);
+			}
+		}
+		return uri.append("&_=1391226546874").toString();
+	}
+
+	@Test
+	public void acknowledged() {
+		open();
+		poll();
+		socket.send("message", "a");
+		assertThat(data(), is(Arrays.<Object> asList("a")));
+		String[] ids = ids();
+		socket.send("message", "b");
+		assertThat(poll(ids), is(Arrays.<Object> asList("b")));
+		assertThat(poll(ids()), is(Collections.emptyList()));
+	}
+
+	@Test
+	public void notAcknowledged() {
+		open();
+		poll();
+		socket.send("message", "a");
+		socket.send("message", "b");
+		socket.send("message", "c");
+		// The response to the first poll was lost
+		assertThat(poll(), is(Arrays.<Object> asList("a", "b", "c")));
+	}
+
+	@Test
+	public void partlyAcknowledged() {
+		open();
+		poll();
+		socket.send("message", "a");
+		String[] ids = ids();
+		socket.send("message", "b");
+		socket.send("message", "c");
+		assertThat(poll(ids), is(Arrays.<Object> asList("b", "c")));
+	}
+
+	@Test
+	public void bounded() {
+		server.longpollBuffer(2, 1, TimeUnit.MINUTES);
+		open();
+		socket.send("message", "a");
+		socket.send("message", "b");
+		socket.send("message", "c");
+		// The oldest one is dropped by default
+		assertThat(poll(), is(Arrays.<Object> asList("b", "c")));
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import io.github.flowersinthesand.portal.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Timer} which runs scheduled tasks only when told to.
+ *
+ * @author Donghwan Kim
+ */
+public class ManualTimer implements Timer {
+
+	private final List<ManualTimeout> timeouts = new ArrayList<>();
+
+	@Override
+	public synchronized Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		ManualTimeout timeout = new ManualTimeout(task, unit.toMillis(delay));
+		timeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Runs all the tasks scheduled so far and not cancelled.
+	 */
+	public void runAll() {
+		List<ManualTimeout> timeouts;
+		synchronized (this) {
+			timeouts = new ArrayList<>(this.timeouts);
+			this.timeouts.clear();
+		}
+		for (ManualTimeout timeout : timeouts) {
+			timeout.expire();
+		}
+	}
+
+	/**
+	 * Timeouts scheduled and neither run nor cancelled.
+	 */
+	public synchronized List<ManualTimeout> pending() {
+		List<ManualTimeout> pending = new ArrayList<>();
+		for (ManualTimeout timeout : timeouts) {
+			if (!timeout.isCancelled()) {
+				pending.add(timeout);
+			}
+		}
+		return pending;
+	}
+
+	public static class ManualTimeout implements Timeout {
+		private final Runnable task;
+		private final long delay;
+		private volatile boolean cancelled;
+		private volatile boolean expired;
+
+		ManualTimeout(Runnable task, long delay) {
+			this.task = task;
+			this.delay = delay;
+		}
+
+		void expire() {
+			if (!cancelled) {
+				expired = true;
+				task.run();
+			}
+		}
+
+		/**
+		 * The delay in milliseconds.
+		 */
+		public long delay() {
+			return delay;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (expired || cancelled) {
+				return false;
+			}
+			cancelled = true;
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return expired;
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.OverflowPolicy;
+import io.github.flowersinthesand.portal.Socket;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Outbound limit and overflow policies.
+ *
+ * @author Donghwan Kim
+ */
+public class OverflowTest {
+
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final BenchmarkServer server = new BenchmarkServer();
+
+	@Test
+	public void dropOldest() {
+		server.sendExecutor(executor).outboundLimit(2, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST);
+		Client client = new Client(server);
+		client.socket().send("message", "a").send("message", "b").send("message", "c");
+		executor.runAll();
+		assertThat(client.received("message"), is(Arrays.<Object> asList("b", "c")));
+	}
+
+	@Test
+	public void dropNewest() {
+		final AtomicInteger overflows = new AtomicInteger();
+		server.sendExecutor(executor).outboundLimit(2, Long.MAX_VALUE, OverflowPolicy.DROP_NEWEST)
+		.overflowAction(new Action<Socket>() {
+			@Override
+			public void on(Socket socket) {
+				overflows.incrementAndGet();
+			}
+		});
+		Client client = new Client(server);
+		client.socket().send("message", "a").send("message", "b").send("message", "c");
+		executor.runAll();
+		assertThat(client.received("message"), is(Arrays.<Object> asList("a", "b")));
+		assertThat(overflows.get(), is(1));
+		assertThat(client.closed(), is(false));
+	}
+
+	@Test
+	public void conflate() {
+		server.sendExecutor(executor).outboundLimit(2, Long.MAX_VALUE, OverflowPolicy.CONFLATE);
+		Client client = new Client(server);
+		client.socket().send("price", 1).send("news", "x").send("price", 2);
+		executor.runAll();
+		assertThat(client.received("price"), is(Arrays.<Object> asList(2)));
+		assertThat(client.received("news"), is(Arrays.<Object> asList("x")));
+	}
+
+	@Test
+	public void overflowActionAfterQueued() {
+		final AtomicBoolean sent = new AtomicBoolean();
+		server.sendExecutor(executor).outboundLimit(2, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST)
+		.overflowAction(new Action<Socket>() {
+			@Override
+			public void on(Socket socket) {
+				if (sent.compareAndSet(false, true)) {
+					socket.send("message", "d");
+				}
+			}
+		});
+		Client client = new Client(server);
+		client.socket().send("message", "a").send("message", "b").send("message", "c");
+		executor.runAll();
+		assertThat(client.received("message"), is(Arrays.<Object> asList("c", "d")));
+	}
+
+	@Test
+	public void overflowActionOutOfLongpollLock() throws InterruptedException {
+		final AtomicBoolean sent = new AtomicBoolean();
+		final AtomicBoolean blocked = new AtomicBoolean();
+		server.outboundLimit(1, Long.MAX_VALUE, OverflowPolicy.DROP_NEWEST)
+		.overflowAction(new Action<Socket>() {
+			@Override
+			public void on(final Socket socket) {
+				if (sent.compareAndSet(false, true)) {
+					// Another thread would wait for the lock if it's held
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							socket.send("message", "c");
+						}
+					});
+					thread.start();
+					try {
+						thread.join(5000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					blocked.set(thread.isAlive());
+				}
+			}
+		});
+		Socket socket = server.openHttp("longpollajax");
+		socket.send("message", "a").send("message", "b");
+		assertThat(sent.get(), is(true));
+		assertThat(blocked.get(), is(false));
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.ClusteredServer;
+import io.github.flowersinthesand.portal.InMemorySocketDirectory;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Batching of messages of {@link ClusteredServer}.
+ *
+ * @author Donghwan Kim
+ */
+public class PublishBatchTest {
+
+	private final ManualTimer timer = new ManualTimer();
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final List<Map<String, Object>> published = new CopyOnWriteArrayList<>();
+	private final List<byte[]> binaryPublished = new CopyOnWriteArrayList<>();
+	private final ClusteredServer server = new ClusteredServer().nodeId("n1").socketDirectory(new InMemorySocketDirectory());
+
+	{
+		server.timer(timer).timeoutExecutor(executor);
+		server.publishAction(new Action<Map<String, Object>>() {
+			@Override
+			public void on(Map<String, Object> message) {
+				published.add(message);
+			}
+		});
+	}
+
+	@Test
+	public void size() {
+		server.publishBatch(1, TimeUnit.MINUTES, 3);
+		Client client = new Client(server);
+		server.all().send("message", "a");
+		server.all().send("message", "b");
+		assertThat(published.isEmpty(), is(true));
+		server.all().send("message", "c");
+		assertThat(published.size(), is(1));
+		assertThat(published.get(0).get("method"), is((Object) "batch"));
+		assertThat(((Object[]) published.get(0).get("args")).length, is(3));
+		server.messageAction().on(published.get(0));
+		assertThat(client.received("message"), is(Arrays.<Object> asList("a", "b", "c")));
+	}
+
+	@Test
+	public void window() {
+		server.publishBatch(10, TimeUnit.MILLISECONDS, 100);
+		server.all().send("message", "a");
+		server.all().send("message", "b");
+		timer.runAll();
+		assertThat(published.isEmpty(), is(true));
+		// Published on the timeout executor
+		executor.runAll();
+		assertThat(published.size(), is(1));
+		assertThat(((Object[]) published.get(0).get("args")).length, is(2));
+	}
+
+	@Test
+	public void flush() {
+		server.publishBatch(1, TimeUnit.MINUTES, 100);
+		server.all().send("message", "a");
+		server.flush();
+		// A single message is published as it is
+		assertThat(published.size(), is(1));
+		assertThat(published.get(0).get("method"), is((Object) "all"));
+	}
+
+	@Test
+	public void nodesOfBatch() {
+		server.publishBatch(1, TimeUnit.MINUTES, 100);
+		Client client = new Client(server);
+		server.byId(client.socket().id()).send("message", "a");
+		server.byId(client.socket().id()).send("message", "b");
+		server.flush();
+		assertThat(((String[]) published.get(0).get("nodes"))[0], is("n1"));
+		server.all().send("message", "c");
+		server.byId(client.socket().id()).send("message", "d");
+		server.flush();
+		assertThat(published.get(1).get("nodes"), nullValue());
+	}
+
+	@Test
+	public void localSocketInOrder() {
+		server.publishBatch(1, TimeUnit.MINUTES, 100);
+		Client client = new Client(server);
+		server.all().send("message", "a");
+		// Doesn't overtake the message gathered before
+		server.byId(client.socket().id()).send("message", "b");
+		assertThat(client.received("message").isEmpty(), is(true));
+		server.flush();
+		server.messageAction().on(published.get(0));
+		assertThat(client.received("message"), is(Arrays.<Object> asList("a", "b")));
+	}
+
+	@Test
+	public void binaryInOrder() {
+		server.binaryPublishAction(new Action<byte[]>() {
+			@Override
+			public void on(byte[] message) {
+				binaryPublished.add(message);
+			}
+		});
+		server.publishBatch(1, TimeUnit.MINUTES, 100);
+		Client client = new Client(server);
+		List<Object> expected = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			server.all().send("message", i);
+			expected.add(i);
+		}
+		server.flush();
+		assertThat(binaryPublished.size(), is(1));
+		server.binaryMessageAction().on(binaryPublished.get(0));
+		assertThat(client.received("message"), is(expected));
+	}
+
+}
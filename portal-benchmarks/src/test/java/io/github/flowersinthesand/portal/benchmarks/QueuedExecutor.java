@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor keeping tasks until they are run explicitly so that a test decides
+ * when asynchronous work happens.
+ *
+ * @author Donghwan Kim
+ */
+public class QueuedExecutor implements Executor {
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.offer(task);
+	}
+
+	/**
+	 * Runs the queued tasks including ones queued meanwhile until none is
+	 * left.
+	 */
+	public void runAll() {
+		for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+			task.run();
+		}
+	}
+
+	public boolean isEmpty() {
+		return tasks.isEmpty();
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Reply callbacks of events sent to the client.
+ *
+ * @author Donghwan Kim
+ */
+public class ReplyTest {
+
+	private final ManualTimer timer = new ManualTimer();
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final DefaultServer server = new DefaultServer().timer(timer).timeoutExecutor(executor);
+	private final AtomicReference<Object> replied = new AtomicReference<>();
+	private final AtomicReference<Throwable> failed = new AtomicReference<>();
+	private final Action<Object> reply = new Action<Object>() {
+		@Override
+		public void on(Object data) {
+			replied.set(data);
+		}
+	};
+	private final Action<Throwable> failure = new Action<Throwable>() {
+		@Override
+		public void on(Throwable cause) {
+			failed.set(cause);
+		}
+	};
+
+	@Test
+	public void reply() {
+		Client client = new Client(server);
+		client.socket().send("question", "?", reply, failure);
+		reply(client, "!");
+		assertThat(replied.get(), is((Object) "!"));
+		assertThat(failed.get(), nullValue());
+		assertThat(timer.pending().isEmpty(), is(true));
+	}
+
+	@Test
+	public void defaultTimeout() {
+		Client client = new Client(server);
+		client.socket().send("question", "?", reply, failure);
+		assertThat(timer.pending().size(), is(1));
+		assertThat(timer.pending().get(0).delay(), is(TimeUnit.MINUTES.toMillis(1)));
+	}
+
+	@Test
+	public void expire() {
+		server.replyTimeout(1, TimeUnit.SECONDS);
+		Client client = new Client(server);
+		client.socket().send("question", "?", reply, failure);
+		timer.runAll();
+		executor.runAll();
+		assertThat(failed.get(), instanceOf(TimeoutException.class));
+		// Too late
+		reply(client, "!");
+		assertThat(replied.get(), nullValue());
+	}
+
+	@Test
+	public void noTimeout() {
+		server.replyTimeout(0, TimeUnit.SECONDS);
+		Client client = new Client(server);
+		client.socket().send("question", "?", reply, failure);
+		assertThat(timer.pending().isEmpty(), is(true));
+	}
+
+	@Test
+	public void close() {
+		Client client = new Client(server);
+		client.socket().send("question", "?", reply, failure);
+		client.close();
+		assertThat(failed.get(), instanceOf(IllegalStateException.class));
+		assertThat(timer.pending().isEmpty(), is(true));
+	}
+
+	@Test
+	public void sendAfterClose() {
+		Client client = new Client(server);
+		client.close();
+		client.socket().send("question", "?", reply, failure);
+		assertThat(failed.get(), instanceOf(IllegalStateException.class));
+		assertThat(timer.pending().isEmpty(), is(true));
+		assertThat(client.received("question").isEmpty(), is(true));
+	}
+
+	private void reply(Client client, Object data) {
+		Map<String, Object> event = client.events().get(client.events().size() - 1);
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("id", event.get("id"));
+		result.put("data", data);
+		result.put("exception", false);
+		client.send("1", "reply", result, false);
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.DefaultServer;
+import io.github.flowersinthesand.portal.OverflowPolicy;
+import io.github.flowersinthesand.portal.Socket;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Sockets sending through the send executor.
+ *
+ * @author Donghwan Kim
+ */
+public class SendExecutorTest {
+
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final DefaultServer server = new DefaultServer().sendExecutor(executor);
+
+	@Test
+	public void sendInOrder() {
+		Client client = new Client(server);
+		for (int i = 0; i < 100; i++) {
+			client.socket().send("message", i);
+		}
+		assertThat(client.received("message").isEmpty(), is(true));
+		executor.runAll();
+		assertThat(client.received("message").size(), is(100));
+		assertThat(client.received("message").get(99), is((Object) 99));
+	}
+
+	@Test
+	public void closeAfterPendingMessages() {
+		Client client = new Client(server);
+		Socket socket = client.socket();
+		socket.send("message", "a").send("message", "b").close();
+		assertThat(client.closed(), is(false));
+		executor.runAll();
+		assertThat(client.received("message"), is(Arrays.<Object> asList("a", "b")));
+		assertThat(client.closed(), is(true));
+	}
+
+	@Test
+	public void closeWithoutPendingMessages() {
+		Client client = new Client(server);
+		client.socket().close();
+		executor.runAll();
+		assertThat(client.closed(), is(true));
+		assertThat(executor.isEmpty(), is(true));
+	}
+
+	@Test
+	public void sendAfterClose() {
+		Client client = new Client(server);
+		client.socket().send("message", "a").close();
+		client.socket().send("message", "b");
+		executor.runAll();
+		assertThat(client.received("message"), is(Collections.<Object> singletonList("a")));
+		assertThat(client.closed(), is(true));
+	}
+
+	@Test
+	public void disconnect() {
+		server.outboundLimit(1, Long.MAX_VALUE, OverflowPolicy.DISCONNECT);
+		Client client = new Client(server);
+		client.socket().send("message", "a").send("message", "b");
+		executor.runAll();
+		assertThat(client.received("message").isEmpty(), is(true));
+		assertThat(client.closed(), is(true));
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.ClusteredServer;
+import io.github.flowersinthesand.portal.InMemorySocketDirectory;
+import io.github.flowersinthesand.portal.SocketDirectory;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+/**
+ * Routing of messages of {@link ClusteredServer#byId(String, Action)}
+ * according to the socket directory.
+ *
+ * @author Donghwan Kim
+ */
+public class SocketDirectoryTest {
+
+	private final SocketDirectory directory = new InMemorySocketDirectory();
+	private final List<Map<String, Object>> published = new CopyOnWriteArrayList<>();
+	private final ClusteredServer server1 = server("n1");
+	private final ClusteredServer server2 = server("n2");
+
+	private ClusteredServer server(String nodeId) {
+		ClusteredServer server = new ClusteredServer().nodeId(nodeId).socketDirectory(directory);
+		server.publishAction(new Action<Map<String, Object>>() {
+			@Override
+			public void on(Map<String, Object> message) {
+				published.add(message);
+			}
+		});
+		return server;
+	}
+
+	@Test
+	public void otherNode() {
+		Client client = new Client(server2);
+		server1.byId(client.socket().id()).send("message", "a");
+		assertThat(published.size(), is(1));
+		assertArrayEquals(new String[] { "n2" }, (String[]) published.get(0).get("nodes"));
+		// As the broker would deliver it
+		server2.messageAction().on(published.get(0));
+		assertThat(client.received("message"), is(Arrays.<Object> asList("a")));
+	}
+
+	@Test
+	public void thisNode() {
+		Client client = new Client(server1);
+		server1.byId(client.socket().id()).send("message", "a");
+		assertThat(published.isEmpty(), is(true));
+		assertThat(client.received("message"), is(Arrays.<Object> asList("a")));
+	}
+
+	@Test
+	public void unknownSocket() {
+		server1.byId("unknown").send("message", "a");
+		assertThat(published.size(), is(1));
+		assertThat(published.get(0).get("nodes"), nullValue());
+	}
+
+	@Test
+	public void closedSocket() {
+		Client client = new Client(server2);
+		client.close();
+		assertThat(directory.get(client.socket().id()), nullValue());
+		server1.byId(client.socket().id()).send("message", "a");
+		assertThat(published.get(0).get("nodes"), nullValue());
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.ClusteredServer;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Routing of messages of {@link ClusteredServer#byTag(String[], Action)}
+ * according to tag summaries.
+ *
+ * @author Donghwan Kim
+ */
+public class TagRoutingTest {
+
+	private static final long INTERVAL = 50;
+
+	private final ManualTimer timer = new ManualTimer();
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final List<Map<String, Object>> published1 = new CopyOnWriteArrayList<>();
+	private final List<Map<String, Object>> published2 = new CopyOnWriteArrayList<>();
+	private final ClusteredServer server1 = server("n1", published1);
+	private final ClusteredServer server2 = server("n2", published2);
+
+	private ClusteredServer server(String nodeId, final List<Map<String, Object>> published) {
+		ClusteredServer server = new ClusteredServer().nodeId(nodeId);
+		server.timer(timer).timeoutExecutor(executor);
+		server.publishAction(new Action<Map<String, Object>>() {
+			@Override
+			public void on(Map<String, Object> message) {
+				published.add(message);
+			}
+		});
+		return server.tagSummary(INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void allNodesWhileStarting() {
+		new Client(server1).socket().tag("a");
+		executor.runAll();
+		server1.byTag("b").close();
+		assertThat(last(published1, "byTag").get("nodes"), nullValue());
+	}
+
+	@Test
+	public void matchingNodes() throws InterruptedException {
+		Thread.sleep(INTERVAL * 4);
+		new Client(server1).socket().tag("a");
+		new Client(server2).socket().tag("b");
+		executor.runAll();
+		server1.messageAction().on(last(published2, "summary"));
+		server1.byTag("a").close();
+		assertArrayEquals(new String[] { "n1" }, (String[]) last(published1, "byTag").get("nodes"));
+		server1.byTag("b").close();
+		assertArrayEquals(new String[] { "n2" }, (String[]) last(published1, "byTag").get("nodes"));
+		int size = messages(published1, "byTag").size();
+		server1.byTag("c").close();
+		assertThat(messages(published1, "byTag").size(), is(size));
+	}
+
+	@Test
+	public void allNodesUnlessConfirmed() throws InterruptedException {
+		Thread.sleep(INTERVAL * 4);
+		new Client(server2).socket().tag("b");
+		executor.runAll();
+		server1.messageAction().on(last(published2, "summary"));
+		// n2 has not published its summary since
+		Thread.sleep(INTERVAL * 4);
+		server1.byTag("a").close();
+		assertThat(last(published1, "byTag").get("nodes"), nullValue());
+	}
+
+	@Test
+	public void newestSummary() throws InterruptedException {
+		Thread.sleep(INTERVAL * 4);
+		new Client(server2).socket().tag("b");
+		executor.runAll();
+		Map<String, Object> older = last(published2, "summary");
+		new Client(server2).socket().tag("c");
+		executor.runAll();
+		Map<String, Object> newer = last(published2, "summary");
+		server1.messageAction().on(newer);
+		server1.messageAction().on(older);
+		server1.byTag("c").close();
+		assertArrayEquals(new String[] { "n2" }, (String[]) last(published1, "byTag").get("nodes"));
+	}
+
+	private static List<Map<String, Object>> messages(List<Map<String, Object>> published, String method) {
+		List<Map<String, Object>> messages = new ArrayList<>();
+		for (Map<String, Object> message : published) {
+			if (method.equals(message.get("method"))) {
+				messages.add(message);
+			}
+		}
+		return messages;
+	}
+
+	private static Map<String, Object> last(List<Map<String, Object>> published, String method) {
+		List<Map<String, Object>> messages = messages(published, method);
+		return messages.get(messages.size() - 1);
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal.benchmarks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.github.flowersinthesand.portal.ClusteredServer;
+import io.github.flowersinthesand.wes.Action;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tag summaries of {@link ClusteredServer}.
+ *
+ * @author Donghwan Kim
+ */
+public class TagSummaryTest {
+
+	private final ManualTimer timer = new ManualTimer();
+	private final QueuedExecutor executor = new QueuedExecutor();
+	private final List<Map<String, Object>> published = new CopyOnWriteArrayList<>();
+
+	private ClusteredServer server(String nodeId) {
+		ClusteredServer server = new ClusteredServer().nodeId(nodeId);
+		server.timer(timer).timeoutExecutor(executor);
+		server.publishAction(new Action<Map<String, Object>>() {
+			@Override
+			public void on(Map<String, Object> message) {
+				published.add(message);
+			}
+		});
+		return server.tagSummary(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void publishNewTagLater() {
+		ClusteredServer server = server("n1");
+		executor.runAll();
+		published.clear();
+		new Client(server).socket().tag("a");
+		// Not published while the tag index is locked
+		assertThat(published.isEmpty(), is(true));
+		executor.runAll();
+		assertThat(published.size(), is(1));
+		assertThat(published.get(0).get("method"), is((Object) "summary"));
+		assertThat(((Object[]) published.get(0).get("args"))[0], is((Object) "n1"));
+	}
+
+	@Test
+	public void newerVersions() {
+		ClusteredServer server = server("n1");
+		new Client(server).socket().tag("a");
+		executor.runAll();
+		new Client(server).socket().tag("b");
+		executor.runAll();
+		Object[] first = (Object[]) published.get(published.size() - 2).get("args");
+		Object[] second = (Object[]) published.get(published.size() - 1).get("args");
+		assertThat((Long) second[1] > (Long) first[1], is(true));
+	}
+
+	@Test
+	public void periodically() {
+		server("n1");
+		executor.runAll();
+		published.clear();
+		for (int i = 0; i < 10; i++) {
+			timer.runAll();
+			executor.runAll();
+		}
+		assertThat(published.isEmpty(), is(false));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void enableTwice() {
+		server("n1").tagSummary(1, TimeUnit.SECONDS);
+	}
+
+}
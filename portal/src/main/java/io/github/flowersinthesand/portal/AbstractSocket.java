@@ -33,6 +33,15 @@ public interface AbstractSocket<T> {
 	 */
 	T send(String event, Object data);
 
+	/**
+	 * Sends a given event with data already stringified as JSON. The JSON is
+	 * embedded in the event as it is without being parsed or validated, so
+	 * it's useful to relay JSON from somewhere else. It must be a single and
+	 * valid JSON value, otherwise the client receives a broken event.
+	 * {@link DefaultServer} checks it only if debug logging is enabled.
+	 */
+	T sendRaw(String event, String json);
+
 	/**
 	 * Closes the socket.
 	 */
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import io.github.flowersinthesand.wes.Action;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Binary encoding of a message of {@link ClusteredServer}.
+ * <p>
+ * The built-in actions of {@link Sentence} are written field by field and
+ * data of send action is written as JSON stringified once by the publisher.
+ * Received JSON is spliced into events as it is, as if it were sent by
+ * {@link Sentence#sendRaw(String, String)}, if it's in the form written by
+ * {@link JacksonEventCodec} and the receiving server writes events with that
+ * codec as well. Only other actions fall back to Java
+ * serialization. The format is:
+ *
+ * <pre>
+ * version(1) nodes method(1) [id(utf) | names] action(1) [action fields]
+ * version(1) nodes method(1) node(utf) version(8) count(2) bits(8)*, if tag summary
+ * version(1) nodes method(1) count(4) (length(4) message(length))*, if batch
+ * nodes = count(2) node(utf)*, count is 0 if destined to all nodes
+ * names = count(2) name(utf)*
+ * send  = event(utf) length(4) json(length)
+ * tag   = names
+ * untag = names
+ * other = length(4) serialized(length)
+ * </pre>
+ *
+ * @author Donghwan Kim
+ */
+final class ClusterEnvelope {
+
+	static final byte VERSION = 2;
+
+	static final byte ALL = 0;
+	static final byte BY_ID = 1;
+	static final byte BY_TAG = 2;
+	static final byte SUMMARY = 3;
+	static final byte BATCH = 4;
+
+	static final byte SERIALIZED = 0;
+	static final byte SEND = 1;
+	static final byte CLOSE = 2;
+	static final byte TAG = 3;
+	static final byte UNTAG = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String[] NO_NAMES = {};
+	// How the JSON of send action starts when written by Jackson
+	private static final String DATA_PREFIX = "{\"data\":";
+
+	final String[] nodes;
+	final String method;
+	final Object[] args;
+
+	ClusterEnvelope(String[] nodes, String method, Object[] args) {
+		this.nodes = nodes;
+		this.method = method;
+		this.args = args;
+	}
+
+	@SuppressWarnings("unchecked")
+	static byte[] encode(String[] nodes, String method, Object[] args, EventCodec codec) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			writeNames(out, nodes != null ? nodes : NO_NAMES);
+			switch (method) {
+			case "all":
+				out.writeByte(ALL);
+				break;
+			case "byId":
+				out.writeByte(BY_ID);
+				out.writeUTF((String) args[0]);
+				break;
+			case "byTag":
+				out.writeByte(BY_TAG);
+				writeNames(out, (String[]) args[0]);
+				break;
+			case "summary":
+				out.writeByte(SUMMARY);
+				out.writeUTF((String) args[0]);
+				out.writeLong((Long) args[1]);
+				long[] bits = (long[]) args[2];
+				out.writeShort(bits.length);
+				for (long word : bits) {
+					out.writeLong(word);
+				}
+				out.flush();
+				return bytes.toByteArray();
+			default:
+				throw new IllegalArgumentException("Illegal method name in encoding message: " + method);
+			}
+			writeAction(out, (Action<Socket>) args[args.length - 1], codec);
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encodes the given encoded messages as a single message.
+	 */
+	static byte[] encodeBatch(String[] nodes, byte[][] messages) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			writeNames(out, nodes != null ? nodes : NO_NAMES);
+			out.writeByte(BATCH);
+			out.writeInt(messages.length);
+			for (byte[] message : messages) {
+				out.writeInt(message.length);
+				out.write(message);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeAction(DataOutputStream out, Action<Socket> action, EventCodec codec) throws IOException {
+		if (action instanceof Sentence.SendAction) {
+			Sentence.SendAction sendAction = (Sentence.SendAction) action;
+			out.writeByte(SEND);
+			out.writeUTF(sendAction.event);
+			writeJson(out, codec.encode(Collections.singletonMap("data", sendAction.data)));
+		} else if (action instanceof Sentence.RawSendAction) {
+			Sentence.RawSendAction sendAction = (Sentence.RawSendAction) action;
+			out.writeByte(SEND);
+			out.writeUTF(sendAction.event);
+			writeJson(out, DATA_PREFIX + sendAction.json + "}");
+		} else if (action instanceof Sentence.CloseAction) {
+			out.writeByte(CLOSE);
+		} else if (action instanceof Sentence.TagAction) {
+			out.writeByte(TAG);
+			writeNames(out, ((Sentence.TagAction) action).names);
+		} else if (action instanceof Sentence.UntagAction) {
+			out.writeByte(UNTAG);
+			writeNames(out, ((Sentence.UntagAction) action).names);
+		} else {
+			out.writeByte(SERIALIZED);
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			ObjectOutputStream objectOut = new ObjectOutputStream(serialized);
+			objectOut.writeObject(action);
+			objectOut.close();
+			out.writeInt(serialized.size());
+			serialized.writeTo(out);
+		}
+	}
+
+	private static void writeJson(DataOutputStream out, String text) throws IOException {
+		byte[] json = text.getBytes(UTF_8);
+		out.writeInt(json.length);
+		out.write(json);
+	}
+
+	private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+		out.writeShort(names.length);
+		for (String name : names) {
+			out.writeUTF(name);
+		}
+	}
+
+	static String[] nodes(byte[] data) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		try {
+			return readNodes(in);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String[] readNodes(DataInputStream in) throws IOException {
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported version of message: " + version);
+		}
+		String[] nodes = readNames(in);
+		return nodes.length == 0 ? null : nodes;
+	}
+
+	/**
+	 * Decodes the given message. If {@code splice} is true, JSON of a send
+	 * action written by Jackson is kept as it is in a raw send action. That's
+	 * only right if the receiving server writes events with the default codec.
+	 */
+	static ClusterEnvelope decode(byte[] data, EventCodec codec, boolean splice) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		try {
+			String[] nodes = readNodes(in);
+			byte method = in.readByte();
+			switch (method) {
+			case ALL:
+				return new ClusterEnvelope(nodes, "all", new Object[] { readAction(in, codec, splice) });
+			case BY_ID:
+				String id = in.readUTF();
+				return new ClusterEnvelope(nodes, "byId", new Object[] { id, readAction(in, codec, splice) });
+			case BY_TAG:
+				String[] names = readNames(in);
+				return new ClusterEnvelope(nodes, "byTag", new Object[] { names, readAction(in, codec, splice) });
+			case SUMMARY:
+				String node = in.readUTF();
+				long summaryVersion = in.readLong();
+				long[] bits = new long[in.readUnsignedShort()];
+				for (int i = 0; i < bits.length; i++) {
+					bits[i] = in.readLong();
+				}
+				return new ClusterEnvelope(nodes, "summary", new Object[] { node, summaryVersion, bits });
+			case BATCH:
+				ClusterEnvelope[] envelopes = new ClusterEnvelope[in.readInt()];
+				for (int i = 0; i < envelopes.length; i++) {
+					byte[] message = new byte[in.readInt()];
+					in.readFully(message);
+					envelopes[i] = decode(message, codec, splice);
+				}
+				return new ClusterEnvelope(nodes, "batch", envelopes);
+			default:
+				throw new IllegalArgumentException("Illegal method in decoding message: " + method);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Action<Socket> readAction(DataInputStream in, EventCodec codec, boolean splice) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case SEND:
+			String event = in.readUTF();
+			byte[] json = new byte[in.readInt()];
+			in.readFully(json);
+			String text = new String(json, UTF_8);
+			if (splice && text.startsWith(DATA_PREFIX) && text.endsWith("}")) {
+				return new Sentence.RawSendAction(event, text.substring(DATA_PREFIX.length(), text.length() - 1));
+			}
+			Map<String, Object> map = codec.decode(text);
+			return new Sentence.SendAction(event, map.get("data"));
+		case CLOSE:
+			return new Sentence.CloseAction();
+		case TAG:
+			return new Sentence.TagAction(readNames(in));
+		case UNTAG:
+			return new Sentence.UntagAction(readNames(in));
+		case SERIALIZED:
+			byte[] serialized = new byte[in.readInt()];
+			in.readFully(serialized);
+			ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(serialized));
+			try {
+				@SuppressWarnings("unchecked")
+				Action<Socket> action = (Action<Socket>) objectIn.readObject();
+				return action;
+			} catch (ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			} finally {
+				objectIn.close();
+			}
+		default:
+			throw new IllegalArgumentException("Illegal action type in decoding message: " + type);
+		}
+	}
+
+	private static String[] readNames(DataInputStream in) throws IOException {
+		String[] names = new String[in.readUnsignedShort()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = in.readUTF();
+		}
+		return names;
+	}
+
+}
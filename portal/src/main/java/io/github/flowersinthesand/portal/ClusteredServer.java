@@ -16,13 +16,24 @@
 package io.github.flowersinthesand.portal;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.github.flowersinthesand.wes.Action;
 import io.github.flowersinthesand.wes.Actions;
 import io.github.flowersinthesand.wes.ConcurrentActions;
+import io.github.flowersinthesand.wes.VoidAction;
 
 /**
  * {@link Server} implementation for clustering.
@@ -52,6 +63,11 @@ import io.github.flowersinthesand.wes.ConcurrentActions;
  * inner classes including local and anonymous classes, is discouraged and
  * doesn't work in some cases. Therefore, always use {@link Sentence} instead of action
  * if possible.
+ * <p>
+ * Instead of the map, a message can be exchanged in a compact binary format
+ * using {@link ClusteredServer#binaryPublishAction(Action)} and
+ * {@link ClusteredServer#binaryMessageAction()}. It encodes actions of
+ * {@link Sentence} without Java serialization.
  * 
  * @author Donghwan Kim
  * @see Sentence
@@ -62,56 +78,393 @@ import io.github.flowersinthesand.wes.ConcurrentActions;
 public class ClusteredServer extends DefaultServer {
 
 	private Actions<Map<String, Object>> publishActions = new ConcurrentActions<>();
+	private Actions<byte[]> binaryPublishActions = new ConcurrentActions<>();
+	private volatile boolean binary;
+	private String nodeId = UUID.randomUUID().toString();
+	private SocketDirectory socketDirectory;
+	private volatile CountingBloomFilter tagFilter;
+	private long summaryInterval;
+	private long summaryStarted;
+	private ConcurrentMap<String, Summary> summaries = new ConcurrentHashMap<>();
+	private AtomicBoolean summaryChanged = new AtomicBoolean();
+	// Starts from the current time so that a restarted node's summaries are newer
+	private long summaryVersion = System.currentTimeMillis() * 1000;
+	private final Object summaryLock = new Object();
+	private final Runnable summaryPublisher = new Runnable() {
+		@Override
+		public void run() {
+			if (summaryChanged.get()) {
+				publishSummary();
+			}
+		}
+	};
+	private int batchSize;
+	private long batchWindow;
+	private List<PendingMessage> batch = new ArrayList<>();
+	private final Object batchLock = new Object();
 	private Action<Map<String, Object>> messageAction = new Action<Map<String, Object>>() {
 		@SuppressWarnings("unchecked")
 		@Override
 		public void on(Map<String, Object> map) {
-			String methodName = (String) map.get("method");
-			Object[] args = (Object[]) map.get("args");
-			switch (methodName) {
-			case "all":
-				ClusteredServer.super.all((Action<Socket>) args[0]);
-				break;
-			case "byId":
-				ClusteredServer.super.byId((String) args[0], (Action<Socket>) args[1]);
-				break;
-			case "byTag":
-				ClusteredServer.super.byTag((String[]) args[0], (Action<Socket>) args[1]);
-				break;
-			default:
-				throw new IllegalArgumentException("Illegal method name in processing message: " + methodName);
+			if (isTarget((String[]) map.get("nodes"))) {
+				String method = (String) map.get("method");
+				Object[] args = (Object[]) map.get("args");
+				if (method.equals("batch")) {
+					for (Object message : args) {
+						on((Map<String, Object>) message);
+					}
+				} else {
+					dispatch(method, args);
+				}
 			}
 		}
 	};
+	private Action<byte[]> binaryMessageAction = new Action<byte[]>() {
+		@Override
+		public void on(byte[] data) {
+			receive(ClusterEnvelope.decode(data, eventCodec(), splicesJson()));
+		}
+
+		private void receive(ClusterEnvelope envelope) {
+			if (isTarget(envelope.nodes)) {
+				if (envelope.method.equals("batch")) {
+					for (Object message : envelope.args) {
+						receive((ClusterEnvelope) message);
+					}
+				} else {
+					dispatch(envelope.method, envelope.args);
+				}
+			}
+		}
+	};
+
+	public ClusteredServer() {
+		socketAction(new Action<Socket>() {
+			@Override
+			public void on(final Socket socket) {
+				final SocketDirectory directory = socketDirectory;
+				if (directory != null) {
+					final String id = socket.id();
+					directory.put(id, nodeId);
+					socket.on("close", new VoidAction() {
+						@Override
+						public void on() {
+							directory.remove(id, nodeId);
+						}
+					});
+				}
+			}
+		});
+	}
 
 	@Override
 	public Server all(Action<Socket> action) {
-		publishMessage("all", action);
+		publish(null, "all", action);
 		return this;
 	}
 
 	@Override
 	public Server byId(String id, Action<Socket> action) {
-		publishMessage("byId", id, action);
+		String node = socketDirectory != null ? socketDirectory.get(id) : null;
+		if (node == null) {
+			publish(null, "byId", id, action);
+		} else if (node.equals(nodeId) && batchSize <= 0) {
+			// No need to go through the cluster unless messages are batched,
+			// which would make it overtake messages gathered so far
+			super.byId(id, action);
+		} else {
+			publish(new String[] { node }, "byId", id, action);
+		}
 		return this;
 	}
 
 	@Override
 	public Server byTag(String[] names, Action<Socket> action) {
-		publishMessage("byTag", names, action);
+		String[] nodes = tagFilter != null ? nodesWithTags(names) : null;
+		// An empty array means that no node has such sockets
+		if (nodes == null || nodes.length > 0) {
+			publish(nodes, "byTag", names, action);
+		}
 		return this;
 	}
 
-	private void publishMessage(String method, Object... args) {
+	/**
+	 * Returns ids of nodes which might have a socket tagged with all of the
+	 * given names according to their tag summaries or {@code null} if the
+	 * message should be destined to all nodes just in case. That is so for 3
+	 * intervals after tag summary is enabled, until summaries of other nodes
+	 * arrive, and while any node hasn't confirmed its summary with a newer
+	 * one for 3 intervals.
+	 */
+	private String[] nodesWithTags(String[] names) {
+		long confirmation = System.currentTimeMillis() - 3 * summaryInterval;
+		if (summaryStarted > confirmation) {
+			return null;
+		}
+		List<String> nodes = new ArrayList<>();
+		if (mightContainAll(tagFilter, names)) {
+			nodes.add(nodeId);
+		}
+		for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+			Summary summary = entry.getValue();
+			if (summary.timestamp < confirmation) {
+				return null;
+			}
+			if (mightContainAll(summary.bits, names)) {
+				nodes.add(entry.getKey());
+			}
+		}
+		return nodes.toArray(new String[nodes.size()]);
+	}
+
+	private static boolean mightContainAll(CountingBloomFilter filter, String[] names) {
+		for (String name : names) {
+			if (!filter.mightContain(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean mightContainAll(long[] bits, String[] names) {
+		for (String name : names) {
+			if (!CountingBloomFilter.mightContain(bits, name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	void tagAdded(String name) {
+		CountingBloomFilter filter = tagFilter;
+		// Other nodes skip this node until they know the tag
+		if (filter != null && filter.add(name)) {
+			summaryChanged.set(true);
+			// This is called while the index is locked, so it's published later
+			timeoutExecutor().execute(summaryPublisher);
+		}
+	}
+
+	@Override
+	void tagRemoved(String name) {
+		CountingBloomFilter filter = tagFilter;
+		if (filter != null) {
+			filter.remove(name);
+			// Sending to this node in vain for a while does no harm
+			summaryChanged.set(true);
+		}
+	}
+
+	private void publishSummary() {
+		long version;
+		long[] bits;
+		synchronized (summaryLock) {
+			// A tag added from now on changes the summary again
+			summaryChanged.set(false);
+			version = ++summaryVersion;
+			bits = tagFilter.toBits();
+		}
+		// Receivers keep the newest version, so summaries may arrive out of order
+		publishMessage(null, "summary", nodeId, version, bits);
+	}
+
+	/**
+	 * Publishes the tag summary of this node every interval, which confirms
+	 * the summary to other nodes and lets new nodes learn it, and discards
+	 * summaries of nodes not heard from for 30 intervals. It runs on the
+	 * timeout executor since publishing may block, which the timer must not.
+	 */
+	private class SummaryTask implements Runnable {
+		final Runnable trigger = new Runnable() {
+			@Override
+			public void run() {
+				timeoutExecutor().execute(SummaryTask.this);
+			}
+		};
+
+		@Override
+		public void run() {
+			try {
+				publishSummary();
+				long expiration = System.currentTimeMillis() - 30 * summaryInterval;
+				for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+					if (entry.getValue().timestamp < expiration) {
+						summaries.remove(entry.getKey(), entry.getValue());
+					}
+				}
+			} finally {
+				try {
+					timer().schedule(trigger, summaryInterval, TimeUnit.MILLISECONDS);
+				} catch (IllegalStateException e) {
+					// The timer has been stopped along with the server
+				}
+			}
+		}
+	}
+
+	private static class Summary {
+		final long version;
+		final long[] bits;
+		final long timestamp;
+
+		Summary(long version, long[] bits, long timestamp) {
+			this.version = version;
+			this.bits = bits;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private void publish(String[] nodes, String method, Object... args) {
+		if (batchSize <= 0) {
+			publishMessage(nodes, method, args);
+			return;
+		}
+		List<PendingMessage> messages = null;
+		boolean first;
+		synchronized (batchLock) {
+			first = batch.isEmpty();
+			batch.add(new PendingMessage(nodes, method, args));
+			if (batch.size() >= batchSize) {
+				messages = batch;
+				batch = new ArrayList<>();
+			}
+		}
+		if (messages != null) {
+			publishBatch(messages);
+		} else if (first) {
+			timer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					// Publishing may block, which the timer must not
+					timeoutExecutor().execute(new Runnable() {
+						@Override
+						public void run() {
+							flush();
+						}
+					});
+				}
+			}, batchWindow, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Publishes messages gathered so far at once.
+	 */
+	public void flush() {
+		List<PendingMessage> messages;
+		synchronized (batchLock) {
+			if (batch.isEmpty()) {
+				return;
+			}
+			messages = batch;
+			batch = new ArrayList<>();
+		}
+		publishBatch(messages);
+	}
+
+	private void publishBatch(List<PendingMessage> messages) {
+		if (messages.size() == 1) {
+			PendingMessage message = messages.get(0);
+			publishMessage(message.nodes, message.method, message.args);
+			return;
+		}
+		// The batch is destined to all nodes that any message is destined to
+		Set<String> union = new LinkedHashSet<>();
+		for (PendingMessage message : messages) {
+			if (message.nodes == null) {
+				union = null;
+				break;
+			}
+			union.addAll(Arrays.asList(message.nodes));
+		}
+		String[] nodes = union != null ? union.toArray(new String[union.size()]) : null;
+		Object[] maps = new Object[messages.size()];
+		for (int i = 0; i < maps.length; i++) {
+			PendingMessage message = messages.get(i);
+			maps[i] = message(message.nodes, message.method, message.args);
+		}
+		// Each message in the batch tells nodes not to process it by itself
+		publishActions.fire(message(nodes, "batch", maps));
+		if (binary) {
+			byte[][] encoded = new byte[messages.size()][];
+			for (int i = 0; i < encoded.length; i++) {
+				PendingMessage message = messages.get(i);
+				encoded[i] = ClusterEnvelope.encode(message.nodes, message.method, message.args, eventCodec());
+			}
+			binaryPublishActions.fire(ClusterEnvelope.encodeBatch(nodes, encoded));
+		}
+	}
+
+	private void publishMessage(String[] nodes, String method, Object... args) {
+		publishActions.fire(message(nodes, method, args));
+		if (binary) {
+			binaryPublishActions.fire(ClusterEnvelope.encode(nodes, method, args, eventCodec()));
+		}
+	}
+
+	private static Map<String, Object> message(String[] nodes, String method, Object[] args) {
 		Map<String, Object> map = new LinkedHashMap<>();
 		map.put("method", method);
 		map.put("args", args);
-		publishActions.fire(Collections.unmodifiableMap(map));
+		if (nodes != null) {
+			map.put("nodes", nodes);
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static class PendingMessage {
+		final String[] nodes;
+		final String method;
+		final Object[] args;
+
+		PendingMessage(String[] nodes, String method, Object[] args) {
+			this.nodes = nodes;
+			this.method = method;
+			this.args = args;
+		}
+	}
+
+	private boolean isTarget(String[] nodes) {
+		return nodes == null || Arrays.asList(nodes).contains(nodeId);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void dispatch(String methodName, Object[] args) {
+		switch (methodName) {
+		case "all":
+			super.all((Action<Socket>) args[0]);
+			break;
+		case "byId":
+			super.byId((String) args[0], (Action<Socket>) args[1]);
+			break;
+		case "byTag":
+			super.byTag((String[]) args[0], (Action<Socket>) args[1]);
+			break;
+		case "summary":
+			String node = (String) args[0];
+			if (!node.equals(nodeId)) {
+				Summary summary = new Summary((Long) args[1], (long[]) args[2], System.currentTimeMillis());
+				for (;;) {
+					Summary old = summaries.putIfAbsent(node, summary);
+					// Keeps the newest one
+					if (old == null || old.version >= summary.version || summaries.replace(node, old, summary)) {
+						break;
+					}
+				}
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Illegal method name in processing message: " + methodName);
+		}
 	}
 
 	/**
 	 * Attaches an action to be called with a map containing method name and
-	 * arguments of socket action when it's called.
+	 * arguments of socket action when it's called. If the message is destined
+	 * only to some nodes, the map contains their ids as a string array under
+	 * {@code nodes} and the publisher may send it only to them. Otherwise, the
+	 * message should be sent to all nodes.
 	 */
 	public Server publishAction(Action<Map<String, Object>> action) {
 		publishActions.add(action);
@@ -126,4 +479,110 @@ public class ClusteredServer extends DefaultServer {
 		return messageAction;
 	}
 
+	/**
+	 * Attaches an action to be called with a binary message when a socket
+	 * action is called. Unlike the map given to
+	 * {@link ClusteredServer#publishAction(Action)}, the message can be
+	 * published as it is. The built-in actions of {@link Sentence} are encoded
+	 * compactly with data stringified once, and other actions are encoded
+	 * using Java serialization.
+	 */
+	public Server binaryPublishAction(Action<byte[]> action) {
+		binaryPublishActions.add(action);
+		binary = true;
+		return this;
+	}
+
+	/**
+	 * This action receives a binary message fired from one of node in cluster
+	 * and invokes socket action in this server.
+	 */
+	public Action<byte[]> binaryMessageAction() {
+		return binaryMessageAction;
+	}
+
+	/**
+	 * Returns ids of nodes the given binary message is destined to or
+	 * {@code null} if it's destined to all nodes. It reads only the header of
+	 * the message, so the publisher can use it to route the message.
+	 */
+	public static String[] nodes(byte[] message) {
+		return ClusterEnvelope.nodes(message);
+	}
+
+	/**
+	 * The id of this node. By default, a random UUID.
+	 */
+	public String nodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Sets the id of this node which should be unique in cluster.
+	 */
+	public ClusteredServer nodeId(String nodeId) {
+		this.nodeId = nodeId;
+		return this;
+	}
+
+	/**
+	 * Sets a directory recording which node each socket is connected to. If
+	 * set, {@link ClusteredServer#byId(String, Action)} publishes a message
+	 * destined only to the node the socket is connected to, or executes the
+	 * action directly if it's this node and messages are not batched. If the
+	 * socket is not found in the directory, the message is destined to all
+	 * nodes as usual. The directory should be set before the server starts to
+	 * accept sockets.
+	 */
+	public ClusteredServer socketDirectory(SocketDirectory socketDirectory) {
+		this.socketDirectory = socketDirectory;
+		return this;
+	}
+
+	/**
+	 * Makes this node publish a compact summary of tags of its sockets every
+	 * given interval and whenever a new tag appears, and makes
+	 * {@link ClusteredServer#byTag(String[], Action)} publish a message
+	 * destined only to nodes whose summary might have all of the given tags.
+	 * The summary is a Bloom filter which may have false positives but no
+	 * false negatives, and it's published as a message whose method is
+	 * {@code summary} with a version increasing every time.
+	 * <p>
+	 * A node is skipped only while it keeps confirming its summary with a
+	 * newer one. For 3 intervals after this is enabled and while any known
+	 * node hasn't confirmed its summary for 3 intervals, messages are destined
+	 * to all nodes. A summary not confirmed for 30 intervals is discarded, and
+	 * then the node is not known until its summary arrives again. Since nodes
+	 * not known are skipped, all nodes in cluster should enable this with the
+	 * same interval. A message published after a node tags a socket with a
+	 * new tag and before its summary reaches this node may still skip it.
+	 */
+	public ClusteredServer tagSummary(long interval, TimeUnit unit) {
+		if (tagFilter != null) {
+			throw new IllegalStateException("Tag summary is already enabled");
+		}
+		this.summaryStarted = System.currentTimeMillis();
+		this.summaryInterval = unit.toMillis(interval);
+		this.tagFilter = new CountingBloomFilter();
+		timeoutExecutor().execute(new SummaryTask());
+		return this;
+	}
+
+	/**
+	 * Makes socket finder actions gather messages for the given window or
+	 * until the given number of messages are gathered and publish them as a
+	 * single message whose method is {@code batch} and whose arguments are
+	 * the gathered messages in order. {@link ClusteredServer#messageAction()}
+	 * and {@link ClusteredServer#binaryMessageAction()} unpack it and process
+	 * them in order. The window is measured by the timer so that it can't be
+	 * shorter than the tick duration of the timer, and the batch is published
+	 * on {@link #timeoutExecutor(java.util.concurrent.Executor)} when the window
+	 * ends. By default, messages are published one by one.
+	 */
+	public ClusteredServer publishBatch(long window, TimeUnit unit, int size) {
+		this.batchWindow = unit.toMillis(window);
+		this.batchSize = size;
+		return this;
+	}
+
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Bloom filter of strings supporting removal by keeping a counter per bit.
+ * <p>
+ * It's used to summarize tags of a node in {@link ClusteredServer}. The
+ * summary sent to other nodes is a plain bit set where a bit is set if its
+ * counter is not zero, and {@link CountingBloomFilter#mightContain(long[], String)}
+ * tells whether a string might be in it. It never answers {@code false} for
+ * a string which has been added and not removed.
+ *
+ * @author Donghwan Kim
+ */
+final class CountingBloomFilter {
+
+	static final int SIZE = 8192;
+	static final int HASHES = 3;
+
+	private final AtomicIntegerArray counters = new AtomicIntegerArray(SIZE);
+
+	/**
+	 * Adds the given value and returns whether a bit of
+	 * {@link CountingBloomFilter#toBits()} has been set by that.
+	 */
+	boolean add(String value) {
+		int hash1 = hash1(value);
+		int hash2 = hash2(hash1);
+		boolean changed = false;
+		for (int i = 0; i < HASHES; i++) {
+			if (counters.incrementAndGet(index(hash1, hash2, i)) == 1) {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	void remove(String value) {
+		int hash1 = hash1(value);
+		int hash2 = hash2(hash1);
+		for (int i = 0; i < HASHES; i++) {
+			counters.decrementAndGet(index(hash1, hash2, i));
+		}
+	}
+
+	boolean mightContain(String value) {
+		int hash1 = hash1(value);
+		int hash2 = hash2(hash1);
+		for (int i = 0; i < HASHES; i++) {
+			if (counters.get(index(hash1, hash2, i)) <= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a bit set where a bit is set if its counter is not zero.
+	 */
+	long[] toBits() {
+		long[] bits = new long[SIZE / 64];
+		for (int i = 0; i < SIZE; i++) {
+			if (counters.get(i) > 0) {
+				bits[i >>> 6] |= 1L << i;
+			}
+		}
+		return bits;
+	}
+
+	static boolean mightContain(long[] bits, String value) {
+		int hash1 = hash1(value);
+		int hash2 = hash2(hash1);
+		for (int i = 0; i < HASHES; i++) {
+			int index = index(hash1, hash2, i);
+			if ((bits[index >>> 6] & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash1(String value) {
+		// Spreads String#hashCode which is weak in lower bits
+		int h = value.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash2(int hash1) {
+		int h = hash1 * 0x85EBCA6B;
+		h ^= h >>> 13;
+		// Odd so that indexes don't repeat
+		return h | 1;
+	}
+
+	private static int index(int hash1, int hash2, int i) {
+		return (hash1 + i * hash2) & (SIZE - 1);
+	}
+
+}
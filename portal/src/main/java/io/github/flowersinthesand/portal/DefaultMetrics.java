@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link Metrics} keeping counters and histograms in memory to be read by
+ * monitoring.
+ * <p>
+ * Counters are striped so that threads updating them rarely contend, and
+ * reading a value sums the stripes. Values of a transport are kept in
+ * {@link TransportMetrics}.
+ *
+ * @author Donghwan Kim
+ */
+public class DefaultMetrics implements Metrics {
+
+	private final ConcurrentMap<String, TransportMetrics> transports = new ConcurrentHashMap<>();
+	private final StripedCounter longpollBuffered = new StripedCounter();
+	private final StripedCounter pendingReplies = new StripedCounter();
+
+	private TransportMetrics transport(String name) {
+		TransportMetrics metrics = transports.get(name);
+		if (metrics == null) {
+			TransportMetrics value = new TransportMetrics();
+			metrics = transports.putIfAbsent(name, value);
+			if (metrics == null) {
+				metrics = value;
+			}
+		}
+		return metrics;
+	}
+
+	@Override
+	public void socketOpened(String transport) {
+		transport(transport).opened.increment();
+	}
+
+	@Override
+	public void socketRejected(String transport) {
+		transport(transport).rejected.increment();
+	}
+
+	@Override
+	public void socketClosed(String transport) {
+		transport(transport).closed.increment();
+	}
+
+	@Override
+	public void eventReceived(String transport, int bytes) {
+		TransportMetrics metrics = transport(transport);
+		metrics.eventsReceived.increment();
+		metrics.bytesReceived.add(bytes);
+	}
+
+	@Override
+	public void eventSent(String transport, long latency) {
+		TransportMetrics metrics = transport(transport);
+		metrics.eventsSent.increment();
+		metrics.sendLatency.record(latency);
+	}
+
+	@Override
+	public void bytesWritten(String transport, int bytes) {
+		transport(transport).bytesSent.add(bytes);
+	}
+
+	@Override
+	public void longpollBufferChanged(int delta) {
+		longpollBuffered.add(delta);
+	}
+
+	@Override
+	public void pendingRepliesChanged(int delta) {
+		pendingReplies.add(delta);
+	}
+
+	@Override
+	public void heartbeatTimedOut(String transport) {
+		transport(transport).heartbeatTimeouts.increment();
+	}
+
+	/**
+	 * Metrics of transports used so far by transport name.
+	 */
+	public Map<String, TransportMetrics> transports() {
+		return Collections.unmodifiableMap(transports);
+	}
+
+	/**
+	 * The number of open sockets over all the transports.
+	 */
+	public long openSockets() {
+		long count = 0;
+		for (TransportMetrics metrics : transports.values()) {
+			count += metrics.openSockets();
+		}
+		return count;
+	}
+
+	/**
+	 * The number of messages kept in buffers of all the long polling sockets.
+	 */
+	public long longpollBuffered() {
+		return longpollBuffered.sum();
+	}
+
+	/**
+	 * The number of reply callbacks waiting for the counterpart.
+	 */
+	public long pendingReplies() {
+		return pendingReplies.sum();
+	}
+
+	/**
+	 * Metrics of sockets of a transport.
+	 *
+	 * @author Donghwan Kim
+	 */
+	public static class TransportMetrics {
+		private final StripedCounter opened = new StripedCounter();
+		private final StripedCounter closed = new StripedCounter();
+		private final StripedCounter rejected = new StripedCounter();
+		private final StripedCounter eventsReceived = new StripedCounter();
+		private final StripedCounter bytesReceived = new StripedCounter();
+		private final StripedCounter eventsSent = new StripedCounter();
+		private final StripedCounter bytesSent = new StripedCounter();
+		private final StripedCounter heartbeatTimeouts = new StripedCounter();
+		private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+		public long openSockets() {
+			// Reads closed first not to go below zero
+			long closed = this.closed.sum();
+			return opened.sum() - closed;
+		}
+
+		public long openedSockets() {
+			return opened.sum();
+		}
+
+		public long closedSockets() {
+			return closed.sum();
+		}
+
+		public long rejectedSockets() {
+			return rejected.sum();
+		}
+
+		public long eventsReceived() {
+			return eventsReceived.sum();
+		}
+
+		/**
+		 * The number of bytes of events received in UTF-8.
+		 */
+		public long bytesReceived() {
+			return bytesReceived.sum();
+		}
+
+		public long eventsSent() {
+			return eventsSent.sum();
+		}
+
+		/**
+		 * The number of bytes written to connections in UTF-8, including
+		 * framing and padding of the transport.
+		 */
+		public long bytesSent() {
+			return bytesSent.sum();
+		}
+
+		public long heartbeatTimeouts() {
+			return heartbeatTimeouts.sum();
+		}
+
+		/**
+		 * Latencies from {@link Socket} sending an event to the transport
+		 * taking it over.
+		 */
+		public LatencyHistogram sendLatency() {
+			return sendLatency;
+		}
+	}
+
+}
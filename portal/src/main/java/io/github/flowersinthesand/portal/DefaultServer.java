@@ -24,36 +24,47 @@ import io.github.flowersinthesand.wes.ServerHttpExchange;
 import io.github.flowersinthesand.wes.ServerWebSocket;
 import io.github.flowersinthesand.wes.VoidAction;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.URI;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.net.URLDecoder;
 import java.nio.CharBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 /**
  * Default implementation of {@link Server}.
  * <p>
@@ -66,6 +77,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * <li>{@link DefaultServer#parseEvent(String)}
  * <li>{@link DefaultServer#stringifyEvent(Map)}
  * </ul>
+ * By default, parsing and stringifying events and wrapping JSONP messages are
+ * delegated to an {@link EventCodec} which can be replaced by
+ * {@link DefaultServer#eventCodec(EventCodec)}.
  * 
  * @author Donghwan Kim
  */
@@ -73,7 +87,44 @@ public class DefaultServer implements Server {
 
 	private final Logger log = LoggerFactory.getLogger(DefaultServer.class);
 	private ConcurrentMap<String, DefaultSocket> sockets = new ConcurrentHashMap<>();
+	private ConcurrentMap<String, Set<DefaultSocket>> tagIndex = new ConcurrentHashMap<>();
 	private Actions<Socket> socketActions = new ConcurrentActions<>();
+	private EventCodec eventCodec = new JacksonEventCodec();
+	// Created by this server and thus stopped by it
+	private final HashedWheelTimer defaultTimer = new HashedWheelTimer();
+	private Timer timer = defaultTimer;
+	private EventIdGenerator eventIdGenerator = new SequenceEventIdGenerator();
+	private int longpollBufferSize = 1000;
+	private long longpollBufferAge = TimeUnit.MINUTES.toMillis(1);
+	private Executor sendExecutor;
+	private Executor dispatchExecutor;
+	private Executor timeoutExecutor = TIMEOUT_EXECUTOR;
+	private int maxPendingMessages = Integer.MAX_VALUE;
+	private long maxPendingSize = Long.MAX_VALUE;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+	private Actions<Socket> overflowActions = new ConcurrentActions<>();
+	private long replyTimeout = TimeUnit.MINUTES.toMillis(1);
+	private Metrics metrics;
+	private volatile int maxSockets = Integer.MAX_VALUE;
+	private final ConcurrentMap<String, Integer> maxTransportSockets = new ConcurrentHashMap<>();
+	private volatile RateLimiter openRateLimiter;
+	private volatile long maxSendLatency;
+	// Sockets admitted and not closed yet, overall and by transport
+	private final AtomicInteger admitted = new AtomicInteger();
+	private final ConcurrentMap<String, AtomicInteger> admittedByTransport = new ConcurrentHashMap<>();
+	// Moving average of send latency in nanoseconds and when it was updated
+	private volatile long sendLatency;
+	private volatile long sendLatencyUpdated;
+	private final boolean stringifyEventOverridden = overrides("stringifyEvent", Map.class);
+	private final boolean parseEventOverridden = overrides("parseEvent", String.class);
+	// Data types declared by event handlers by their class
+	private final ConcurrentMap<Class<?>, Class<?>> dataTypes = new ConcurrentHashMap<>();
+
+	private static final Object[] NO_HANDLERS = {};
+	// Marks that the socket has been closed in its inbox
+	private static final Object CLOSED = new Object();
+	// Runs expired timeouts off the thread of the timer by default
+	private static final Executor TIMEOUT_EXECUTOR = newTimeoutExecutor();
 
 	private Action<ServerHttpExchange> httpAction = new Action<ServerHttpExchange>() {
 		@Override
@@ -90,12 +141,12 @@ public class DefaultServer implements Server {
 					case "streamxhr":
 					case "streamxdr":
 					case "streamiframe":
-						socketActions.fire(new DefaultSocket(new StreamTransport(params, http)));
+						open(new StreamTransport(params, http));
 						break;
 					case "longpollajax":
 					case "longpollxdr":
 					case "longpolljsonp":
-						socketActions.fire(new DefaultSocket(new LongpollTransport(params, http)));
+						open(new LongpollTransport(params, http));
 						break;
 					default:
 						log.error("Transport, {}, is not supported", params.get("transport"));
@@ -108,7 +159,7 @@ public class DefaultServer implements Server {
 					if (socket != null) {
 						Transport transport = socket.transport;
 						if (transport instanceof LongpollTransport) {
-							((LongpollTransport) transport).refresh(http);
+							((LongpollTransport) transport).refresh(params, http);
 						} else {
 							log.error("Non-long polling transport#{} sent poll request", id);
 							http.setStatus(HttpStatus.INTERNAL_SERVER_ERROR).close();
@@ -138,14 +189,20 @@ public class DefaultServer implements Server {
 				http.bodyAction(new Action<Data>() {
 					@Override
 					public void on(Data body) {
-						String data = body.as(String.class).substring("data=".length());
-						String id = findSocketId(data);
+						// The socket id and the event are read in a single parse
+						String raw = body.as(String.class);
+						String text = raw.substring("data=".length());
+						Map<String, Object> event = readEvent(text);
+						Object id = event.get("socket");
 						
-						DefaultSocket socket = sockets.get(id);
+						DefaultSocket socket = id instanceof String ? sockets.get(id) : null;
 						if (socket != null) {
 							Transport transport = socket.transport;
 							if (transport instanceof HttpTransport) {
-								transport.messageActions.fire(data);
+								if (metrics != null) {
+									metrics.eventReceived(transport.name, utf8Length(raw));
+								}
+								socket.dispatch(event);
 							} else {
 								log.error("Non-HTTP socket#{} receives a POST message", id);
 								http.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -156,12 +213,6 @@ public class DefaultServer implements Server {
 						}
 						http.close();
 					};
-					
-					private String findSocketId(String text) {
-						Matcher matcher = Pattern.compile("\"socket\":\"([^\"]+)\"").matcher(text);
-						matcher.find();
-						return matcher.group(1);
-					}
 				});
 				break;
 			default:
@@ -193,37 +244,47 @@ public class DefaultServer implements Server {
 	private Action<ServerWebSocket> websocketAction = new Action<ServerWebSocket>() {
 		@Override
 		public void on(ServerWebSocket ws) {
-			Map<String, String> params = parseURI(ws.uri());
-			socketActions.fire(new DefaultSocket(new WebSocketTransport(params, ws)));
+			open(new WebSocketTransport(parseURI(ws.uri()), ws));
 		}
 	};
 
 	/**
-	 * Takes a portal URI and returns a map of parameters.
-	 * <p>
-	 * This is a counterpart of {@code urlBuilder} of client option.
+	 * Opens a socket over the given transport if it's admitted. The transport
+	 * starts to listen to the connection only after the socket is created,
+	 * and the connection is closed if the socket fails to open.
 	 */
-	protected Map<String, String> parseURI(String uri) {
-		Map<String, String> map = new LinkedHashMap<>();
-		String query = URI.create(uri).getQuery();
-		if ((query == null) || (query.equals(""))) {
-			return map;
+	private void open(Transport transport) {
+		if (!admit(transport.name)) {
+			transport.abort(HttpStatus.SERVICE_UNAVAILABLE);
+			return;
 		}
-
-		String[] params = query.split("&");
-		for (String param : params) {
-			try {
-				String[] pair = param.split("=", 2);
-				String name = URLDecoder.decode(pair[0], "UTF-8");
-				if (name == "") {
-					continue;
-				}
-
-				map.put(name, pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "");
-			} catch (UnsupportedEncodingException e) {}
+		DefaultSocket socket;
+		try {
+			socket = new DefaultSocket(transport);
+		} catch (RuntimeException e) {
+			release(transport.name);
+			transport.abort(HttpStatus.INTERNAL_SERVER_ERROR);
+			throw e;
+		}
+		try {
+			transport.start();
+		} catch (RuntimeException e) {
+			// Releases the socket as if the connection were closed
+			socket.onClose();
+			transport.abort(HttpStatus.INTERNAL_SERVER_ERROR);
+			throw e;
 		}
+		socketActions.fire(socket);
+	}
 
-		return Collections.unmodifiableMap(map);
+	/**
+	 * Takes a portal URI and returns a map of parameters.
+	 * <p>
+	 * This is a counterpart of {@code urlBuilder} of client option. A returned
+	 * map is unmodifiable and decodes a parameter only when it's read.
+	 */
+	protected Map<String, String> parseURI(String uri) {
+		return new Query(uri);
 	}
 
 	/**
@@ -233,11 +294,7 @@ public class DefaultServer implements Server {
 	 * this is akin to {@code inbound} of client option.
 	 */
 	protected Map<String, Object> parseEvent(String text) {
-		try {
-			return new ObjectMapper().readValue(text, new TypeReference<Map<String, Object>>() {});
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return eventCodec.decode(text);
 	}
 
 	/**
@@ -247,13 +304,411 @@ public class DefaultServer implements Server {
 	 * be handled by {@code inbound} of client option.
 	 */
 	protected String stringifyEvent(Map<String, Object> event) {
+		return eventCodec.encode(event);
+	}
+
+	/**
+	 * Parses an inbound event. With {@link JacksonEventCodec} and
+	 * {@link DefaultServer#parseEvent(String)} not overridden, data of the
+	 * event is bound only when an event handler reads it.
+	 */
+	private Map<String, Object> readEvent(String text) {
+		if (!parseEventOverridden && eventCodec instanceof JacksonEventCodec) {
+			return ((JacksonEventCodec) eventCodec).decodeLazily(text);
+		}
+		return parseEvent(text);
+	}
+
+	/**
+	 * Returns the type of data the given event handler declares, which is
+	 * {@link Object} if it can't be determined from the class of the handler.
+	 */
+	private Class<?> dataType(Object action) {
+		Class<?> clazz = action.getClass();
+		Class<?> type = dataTypes.get(clazz);
+		if (type == null) {
+			type = Object.class;
+			search: for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+				for (Type i : c.getGenericInterfaces()) {
+					if (i instanceof ParameterizedType && ((ParameterizedType) i).getRawType() == Action.class) {
+						Type arg = ((ParameterizedType) i).getActualTypeArguments()[0];
+						if (arg instanceof ParameterizedType) {
+							arg = ((ParameterizedType) arg).getRawType();
+						}
+						if (arg instanceof Class) {
+							type = (Class<?>) arg;
+						}
+						break search;
+					}
+				}
+			}
+			dataTypes.put(clazz, type);
+		}
+		return type;
+	}
+
+	/**
+	 * Sets an event codec used to parse and stringify events. By default,
+	 * {@link JacksonEventCodec} is used.
+	 */
+	public DefaultServer eventCodec(EventCodec eventCodec) {
+		this.eventCodec = eventCodec;
+		return this;
+	}
+
+	EventCodec eventCodec() {
+		return eventCodec;
+	}
+
+	/**
+	 * Returns whether events are written by {@link JacksonEventCodec} as it
+	 * is, in which case JSON written by Jackson can be spliced into them.
+	 */
+	boolean splicesJson() {
+		return !stringifyEventOverridden && eventCodec.getClass() == JacksonEventCodec.class;
+	}
+
+	Timer timer() {
+		return timer;
+	}
+
+	/**
+	 * Sets a generator of the id of events sent by sockets. By default,
+	 * {@link SequenceEventIdGenerator} with a random prefix is used.
+	 */
+	public DefaultServer eventIdGenerator(EventIdGenerator eventIdGenerator) {
+		this.eventIdGenerator = eventIdGenerator;
+		return this;
+	}
+
+	/**
+	 * Sets a timer used to schedule heartbeat timeouts and other delayed
+	 * tasks of all of the socket in this server. By default, a
+	 * {@link HashedWheelTimer} ticking every 100 milliseconds is used, which
+	 * {@link DefaultServer#stop()} stops. A given timer is not stopped by this
+	 * server.
+	 */
+	public DefaultServer timer(Timer timer) {
+		this.timer = timer;
+		return this;
+	}
+
+	/**
+	 * Stops the default timer so that its thread ends. Timeouts of sockets
+	 * like heartbeat no longer expire, so it should be called only when this
+	 * server is no longer used.
+	 */
+	public void stop() {
+		defaultTimer.stop();
+	}
+
+	/**
+	 * Sets the maximum number of messages and the maximum time a message is
+	 * kept in a buffer of long polling transport until the client acknowledges
+	 * it. Messages older than the given time are discarded and the given
+	 * number of messages is handled like the limit of
+	 * {@link DefaultServer#outboundLimit(int, long, OverflowPolicy)}. By
+	 * default, 1000 messages and 1 minute.
+	 */
+	public DefaultServer longpollBuffer(int size, long age, TimeUnit unit) {
+		this.longpollBufferSize = size;
+		this.longpollBufferAge = unit.toMillis(age);
+		return this;
+	}
+
+	/**
+	 * Makes sending an event to a socket asynchronous by using the given
+	 * executor to write. If set, {@link Socket#send(String, Object)} and
+	 * {@link Socket#close()} put the event into the socket's queue and return
+	 * immediately, and a task executed by the executor drains the queue
+	 * writing several queued events at once where the transport allows. Events
+	 * to a socket are still written in order, and a slow socket no longer
+	 * holds up sending to other sockets. By default, events are written
+	 * synchronously by the calling thread.
+	 */
+	public DefaultServer sendExecutor(Executor executor) {
+		this.sendExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Makes events received by sockets dispatched to their actions by using
+	 * the given executor instead of the I/O thread which received them, so
+	 * that a slow action doesn't hold up other connections. Each socket has
+	 * a queue of received events drained by at most one task at a time, so
+	 * events to a socket are still dispatched in order including the close
+	 * event. Messages over WebSocket are parsed by the executor as well,
+	 * whereas events over HTTP are parsed by the I/O thread to find the
+	 * socket. By default, events are dispatched by the I/O thread.
+	 */
+	public DefaultServer dispatchExecutor(Executor executor) {
+		this.dispatchExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Sets an executor to which the timer hands over timeouts that expired,
+	 * like closing a socket whose heartbeat timed out, as the thread of the
+	 * timer must not block. A socket having an inbox by
+	 * {@link DefaultServer#dispatchExecutor(Executor)} runs them through the
+	 * inbox instead. By default, a pool of daemon threads as many as the
+	 * processors, at least two, shared by all servers is used. Timeouts
+	 * expiring at once like after a network failure wait in its queue rather
+	 * than creating a thread each.
+	 */
+	public DefaultServer timeoutExecutor(Executor executor) {
+		this.timeoutExecutor = executor;
+		return this;
+	}
+
+	Executor timeoutExecutor() {
+		return timeoutExecutor;
+	}
+
+	private static Executor newTimeoutExecutor() {
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, 
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "portal-timeout-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		// Doesn't keep threads while nothing expires
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Makes actions of sockets and sending events run on virtual threads,
+	 * one per task, by using an executor creating them as
+	 * {@link DefaultServer#dispatchExecutor(Executor)},
+	 * {@link DefaultServer#sendExecutor(Executor)} and
+	 * {@link DefaultServer#timeoutExecutor(Executor)}. Then actions may block on
+	 * I/O like a database query without tying up a platform thread, while
+	 * events to and from a socket are still handled in order. Transports
+	 * guard writing with locks rather than monitors so that a blocked write
+	 * doesn't pin the carrier thread. If the event id generator is a
+	 * {@link SequenceEventIdGenerator}, it stops reserving numbers per thread
+	 * as threads don't live long.
+	 * 
+	 * @throws UnsupportedOperationException if the JDK doesn't support
+	 *         virtual threads
+	 * @see DefaultServer#supportsVirtualThreads()
+	 */
+	public DefaultServer virtualThreads() {
+		Executor executor = newVirtualThreadPerTaskExecutor();
+		if (executor == null) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by Java " 
+				+ System.getProperty("java.version"));
+		}
+		if (eventIdGenerator instanceof SequenceEventIdGenerator) {
+			((SequenceEventIdGenerator) eventIdGenerator).threadBlocks(false);
+		}
+		return dispatchExecutor(executor).sendExecutor(executor).timeoutExecutor(executor);
+	}
+
+	/**
+	 * Returns {@code true} if the JDK supports virtual threads, which are
+	 * available since Java 21.
+	 */
+	public static boolean supportsVirtualThreads() {
+		return newVirtualThreadPerTaskExecutor() != null;
+	}
+
+	private static Executor newVirtualThreadPerTaskExecutor() {
+		// Looked up reflectively as this library is compiled for Java 7
 		try {
-			return new ObjectMapper().writeValueAsString(event);
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e);
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// Thrown by Java 19 and 20 unless preview features are enabled
+			if (e.getCause() instanceof UnsupportedOperationException) {
+				return null;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
 		}
 	}
+
+	/**
+	 * Limits the number and the total length of messages pending for a socket
+	 * and sets what to do if a new message exceeds either limit. Pending
+	 * messages are those queued in asynchronous send mode and those kept by
+	 * long polling transport until they are acknowledged. In synchronous send
+	 * mode, stream and WebSocket transports write immediately and have no
+	 * pending message. A message to a long polling socket is checked once
+	 * against the limit of its buffer even in asynchronous send mode. By
+	 * default, there is no limit other than that of long polling buffer and
+	 * the oldest messages are discarded.
+	 * 
+	 * @see DefaultServer#sendExecutor(Executor)
+	 * @see DefaultServer#overflowAction(Action)
+	 */
+	public DefaultServer outboundLimit(int messages, long length, OverflowPolicy policy) {
+		this.maxPendingMessages = messages;
+		this.maxPendingSize = length;
+		this.overflowPolicy = policy;
+		return this;
+	}
+
+	/**
+	 * Registers an action to be called with a socket whenever a message sent
+	 * to it exceeds its outbound limit. It's called after the policy is
+	 * applied and out of any lock of the transport.
+	 */
+	public DefaultServer overflowAction(Action<Socket> action) {
+		overflowActions.add(action);
+		return this;
+	}
+
+	/**
+	 * Sets how long to wait for the counterpart to reply to an event sent
+	 * with a reply callback. If the time passes, the callback is discarded and
+	 * the failure callback given to
+	 * {@link Socket#send(String, Object, Action, Action)} is called with a
+	 * {@link TimeoutException}. Regardless of this, pending callbacks are
+	 * discarded when the socket is closed. By default, it's 1 minute, and
+	 * zero disables the timeout.
+	 */
+	public DefaultServer replyTimeout(long timeout, TimeUnit unit) {
+		this.replyTimeout = unit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * Sets metrics to be notified of sockets, events and replies. By default,
+	 * nothing is measured and the cost is a null check per call site.
+	 * 
+	 * @see DefaultMetrics
+	 */
+	public DefaultServer metrics(Metrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
 	
+	/**
+	 * Limits the number of open sockets. A new socket exceeding the limit is
+	 * rejected, that is, HTTP transports are responded with 503 Service
+	 * Unavailable and WebSocket is closed. It may be changed at any time
+	 * without affecting open sockets. By default, there is no limit.
+	 */
+	public DefaultServer maxSockets(int max) {
+		this.maxSockets = max;
+		return this;
+	}
+
+	/**
+	 * Limits the number of open sockets of the given transport like
+	 * {@code ws} and {@code sse} in addition to
+	 * {@link DefaultServer#maxSockets(int)}.
+	 */
+	public DefaultServer maxSockets(String transport, int max) {
+		maxTransportSockets.put(transport, max);
+		return this;
+	}
+
+	/**
+	 * Limits how many sockets can be opened per the given period, which is
+	 * to survive a storm of reconnections after a deploy or a network
+	 * failure. That many sockets can be opened at once after a quiet period.
+	 * A non-positive number removes the limit, which is the default.
+	 */
+	public DefaultServer maxOpenRate(int sockets, long period, TimeUnit unit) {
+		this.openRateLimiter = sockets > 0 ? new RateLimiter(sockets, period, unit) : null;
+		return this;
+	}
+
+	/**
+	 * Rejects new sockets while the average time for an event to be handed
+	 * over to the transport since it was sent exceeds the given latency, as
+	 * then the server is already too busy to serve open sockets. The average
+	 * is taken only when this is enabled and is ignored if no event has been
+	 * sent in the last second. 0 disables it, which is the default.
+	 */
+	public DefaultServer maxSendLatency(long latency, TimeUnit unit) {
+		this.maxSendLatency = unit.toNanos(latency);
+		return this;
+	}
+
+	/**
+	 * Decides whether to accept a new socket of the given transport. If it's
+	 * accepted, it's counted until it's closed.
+	 */
+	private boolean admit(String transport) {
+		if (maxSendLatency > 0 && sendLatency > maxSendLatency 
+			&& System.nanoTime() - sendLatencyUpdated < TimeUnit.SECONDS.toNanos(1)) {
+			return reject(transport, "send latency is too high");
+		}
+		if (admitted.incrementAndGet() > maxSockets) {
+			admitted.decrementAndGet();
+			return reject(transport, "there are too many sockets");
+		}
+		AtomicInteger count = admitted(transport);
+		Integer max = maxTransportSockets.get(transport);
+		if (count.incrementAndGet() > (max != null ? max : Integer.MAX_VALUE)) {
+			release(transport);
+			return reject(transport, "there are too many sockets of the transport");
+		}
+		RateLimiter rateLimiter = openRateLimiter;
+		if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+			release(transport);
+			return reject(transport, "too many sockets have been opened recently");
+		}
+		return true;
+	}
+
+	private boolean reject(String transport, String reason) {
+		// Not an error and may happen a lot during a storm
+		log.debug("A new socket of {} transport is rejected as {}", transport, reason);
+		if (metrics != null) {
+			metrics.socketRejected(transport);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the name of the transport of the given parameters. The
+	 * transport parameter may be omitted when a WebSocket is opened.
+	 */
+	private static String transportName(Map<String, String> params) {
+		String transport = params.get("transport");
+		return transport != null ? transport : "ws";
+	}
+
+	private void release(String transport) {
+		admitted(transport).decrementAndGet();
+		admitted.decrementAndGet();
+	}
+
+	private AtomicInteger admitted(String transport) {
+		AtomicInteger count = admittedByTransport.get(transport);
+		if (count == null) {
+			AtomicInteger value = new AtomicInteger();
+			count = admittedByTransport.putIfAbsent(transport, value);
+			if (count == null) {
+				count = value;
+			}
+		}
+		return count;
+	}
+
+	private void sampleSendLatency(long latency, long now) {
+		// Takes a sample per millisecond at most not to contend on every send
+		if (now - sendLatencyUpdated >= 1000000) {
+			sendLatencyUpdated = now;
+			long average = sendLatency;
+			// Weights a new sample by 1/8 like TCP does for round-trip time
+			sendLatency = average + (latency - average) / 8;
+		}
+	}
+
 	@Override
 	public Sentence all() {
 		return new Sentence(new Action<Action<Socket>>() {
@@ -266,6 +721,7 @@ public class DefaultServer implements Server {
 	
 	@Override
 	public Server all(Action<Socket> action) {
+		action = prepare(action);
 		for (Socket socket : sockets.values()) {
 			action.on(socket);
 		}
@@ -309,14 +765,121 @@ public class DefaultServer implements Server {
 	@Override
 	public Server byTag(String[] names, Action<Socket> action) {
 		List<String> nameList = Arrays.asList(names);
-		for (Socket socket : sockets.values()) {
-			if (socket.tags().containsAll(nameList)) {
+		// Starts from the smallest set of sockets tagged with one of the names
+		Collection<DefaultSocket> candidates = names.length == 0 ? sockets.values() : null;
+		for (String name : names) {
+			Set<DefaultSocket> tagged = tagIndex.get(name);
+			if (tagged == null) {
+				return this;
+			}
+			if (candidates == null || tagged.size() < candidates.size()) {
+				candidates = tagged;
+			}
+		}
+		action = prepare(action);
+		for (DefaultSocket socket : candidates) {
+			if (socket.tags.containsAll(nameList)) {
 				action.on(socket);
 			}
 		}
 		return this;
 	}
 
+	private void index(String name, DefaultSocket socket) {
+		for (;;) {
+			Set<DefaultSocket> tagged = tagIndex.get(name);
+			if (tagged == null) {
+				Set<DefaultSocket> value = Collections.newSetFromMap(new ConcurrentHashMap<DefaultSocket, Boolean>());
+				tagged = tagIndex.putIfAbsent(name, value);
+				if (tagged == null) {
+					tagged = value;
+				}
+			}
+			synchronized (tagged) {
+				// The set may have been removed from the index as it became empty
+				if (tagIndex.get(name) == tagged) {
+					if (tagged.add(socket) && tagged.size() == 1) {
+						tagAdded(name);
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private void unindex(String name, DefaultSocket socket) {
+		Set<DefaultSocket> tagged = tagIndex.get(name);
+		if (tagged != null) {
+			synchronized (tagged) {
+				if (tagged.remove(socket) && tagged.isEmpty()) {
+					tagIndex.remove(name, tagged);
+					tagRemoved(name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called when the first socket in this server is tagged with the given
+	 * name.
+	 */
+	void tagAdded(String name) {}
+
+	/**
+	 * Called when no socket in this server is tagged with the given name any
+	 * longer.
+	 */
+	void tagRemoved(String name) {}
+
+	/**
+	 * Replaces a send action of {@link Sentence} with one that stringifies
+	 * the event once and shares it among all the matched sockets. That is not
+	 * possible if {@link DefaultServer#stringifyEvent(Map)} is overridden
+	 * since then every event has to go through that method.
+	 */
+	private Action<Socket> prepare(Action<Socket> action) {
+		if (action instanceof Sentence.SendAction && !stringifyEventOverridden) {
+			Sentence.SendAction sendAction = (Sentence.SendAction) action;
+			return new PreparedSendAction(sendAction.event, sendAction.data);
+		}
+		if (action instanceof Sentence.RawSendAction && !stringifyEventOverridden) {
+			Sentence.RawSendAction sendAction = (Sentence.RawSendAction) action;
+			checkRaw(sendAction.event, sendAction.json);
+			return new PreparedSendAction(sendAction.event, null, rawRemainder(sendAction.event, sendAction.json));
+		}
+		return action;
+	}
+
+	/**
+	 * Logs an error if the given JSON to be spliced into an event is not a
+	 * single JSON value. It's checked only if debug logging is enabled as
+	 * that costs as much as parsing.
+	 */
+	private void checkRaw(String event, String json) {
+		if (log.isDebugEnabled() && eventCodec instanceof JacksonEventCodec 
+			&& !((JacksonEventCodec) eventCodec).isValue(json)) {
+			log.error("Data of {} event sent as raw JSON is not a single JSON value, {}", event, json);
+		}
+	}
+
+	/**
+	 * Returns an event except its id, of which data is the given JSON, in the
+	 * form that {@link PreparedSendAction} shares.
+	 */
+	private String rawRemainder(String type, String json) {
+		return "\"type\":" + eventCodec.quote(type) + ",\"data\":" + json + ",\"reply\":false}";
+	}
+
+	private boolean overrides(String name, Class<?>... parameterTypes) {
+		for (Class<?> clazz = getClass(); clazz != DefaultServer.class; clazz = clazz.getSuperclass()) {
+			try {
+				clazz.getDeclaredMethod(name, parameterTypes);
+				return true;
+			} catch (NoSuchMethodException e) {}
+		}
+		return false;
+	}
+
 	@Override
 	public Server socketAction(Action<Socket> action) {
 		socketActions.add(action);
@@ -333,53 +896,418 @@ public class DefaultServer implements Server {
 		return websocketAction;
 	}
 
+	/**
+	 * Send action stringifying the event except its id only once. The id is
+	 * the only per-socket part of the event, so it's prepended to the shared
+	 * remainder for each socket.
+	 */
+	private class PreparedSendAction implements Action<Socket> {
+		final String type;
+		final Object data;
+		String remainder;
+
+		PreparedSendAction(String type, Object data) {
+			this.type = type;
+			this.data = data;
+		}
+
+		PreparedSendAction(String type, Object data, String remainder) {
+			this(type, data);
+			this.remainder = remainder;
+		}
+
+		@Override
+		public void on(Socket socket) {
+			if (remainder == null) {
+				Map<String, Object> event = new LinkedHashMap<String, Object>();
+				event.put("type", type);
+				event.put("data", data);
+				event.put("reply", false);
+				String text = eventCodec.encode(event);
+				// Only a JSON object can be spliced
+				remainder = text.startsWith("{") ? text.substring(1) : "";
+			}
+			if (remainder.isEmpty()) {
+				socket.send(type, data);
+			} else {
+				((DefaultSocket) socket).sendPrepared(type, remainder);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the given text encoded in UTF-8 without
+	 * encoding it.
+	 */
+	private static int utf8Length(CharSequence text) {
+		int length = text.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x800) {
+				// A surrogate pair makes 4 bytes, 2 for each
+				bytes += Character.isSurrogate(c) ? 1 : 2;
+			} else if (c >= 0x80) {
+				bytes++;
+			}
+		}
+		return bytes;
+	}
+
 	private abstract class Transport {
 		final Map<String, String> params;
-		Actions<String> messageActions = new ConcurrentActions<>();
-		Actions<Void> closeActions = new ConcurrentActions<>();
+		final String name;
+		// Notified of messages and close directly
+		DefaultSocket socket;
+		// Guards writing to the connection without pinning a virtual thread
+		final Lock lock = new ReentrantLock();
 
 		Transport(Map<String, String> params) {
 			this.params = params;
+			this.name = transportName(params);
 		}
 		
 		abstract String uri();
-		abstract void send(String data);
+		abstract void send(Message message);
 		abstract void close();
-	}
 
-	private class WebSocketTransport extends Transport {
-		final ServerWebSocket ws;
-		
-		WebSocketTransport(Map<String, String> params, ServerWebSocket ws) {
-			super(params);
-			this.ws = ws;
-			ws.closeAction(new VoidAction() {
-				@Override
-				public void on() {
-					closeActions.fire();
-				}
-			})
-			.messageAction(new Action<Data>() {
-				@Override
-				public void on(Data data) {
-					messageActions.fire(data.as(String.class));
-				}
-			});
+		/**
+		 * Starts to listen to the connection and notify the socket.
+		 */
+		abstract void start();
+
+		/**
+		 * Closes the connection on which no socket is open, with the given
+		 * status if it's HTTP.
+		 */
+		abstract void abort(HttpStatus status);
+
+		/**
+		 * Reports the given data written to the connection to metrics.
+		 */
+		void written(CharSequence data) {
+			if (metrics != null) {
+				metrics.bytesWritten(name, utf8Length(data));
+			}
 		}
-		
-		@Override
+
+		/**
+		 * Sends the given messages. Transports able to write several messages
+		 * at once override this.
+		 */
+		void send(List<Message> messages) {
+			for (Message message : messages) {
+				send(message);
+			}
+		}
+	}
+
+	private static class Message {
+		final String eventId;
+		final String type;
+		final String text;
+		// When the socket sent it, only if metrics are enabled
+		long created;
+
+		Message(String eventId, String type, String text) {
+			this.eventId = eventId;
+			this.type = type;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Messages pending for a socket which are bounded by the outbound limit.
+	 */
+	private interface PendingMessages {
+		boolean exceeds(Message message);
+
+		/**
+		 * Removes the oldest message and returns whether there was one.
+		 */
+		boolean removeOldest();
+
+		/**
+		 * Removes the oldest message of the same event type as the given one
+		 * and returns whether there was one.
+		 */
+		boolean removeSameType(Message message);
+	}
+
+	/**
+	 * Makes room for the given message in the given pending messages if it
+	 * exceeds the limit, according to the given policy. Returns the applied
+	 * policy or {@code null} if it doesn't exceed. With
+	 * {@link OverflowPolicy#DROP_NEWEST} and {@link OverflowPolicy#DISCONNECT},
+	 * nothing is removed and the message should be discarded.
+	 */
+	private static OverflowPolicy makeRoom(PendingMessages pending, Message message, OverflowPolicy policy) {
+		if (!pending.exceeds(message)) {
+			return null;
+		}
+		switch (policy) {
+		case DROP_NEWEST:
+		case DISCONNECT:
+			return policy;
+		case CONFLATE:
+			pending.removeSameType(message);
+			// Falls through to drop the oldest if still exceeded
+		default:
+			while (pending.exceeds(message)) {
+				if (!pending.removeOldest()) {
+					break;
+				}
+			}
+			return policy;
+		}
+	}
+
+	/**
+	 * Returns whether the message should still be sent after the given
+	 * policy returned by {@link DefaultServer#makeRoom} is applied.
+	 */
+	private static boolean accepts(OverflowPolicy applied) {
+		return applied != OverflowPolicy.DROP_NEWEST && applied != OverflowPolicy.DISCONNECT;
+	}
+
+	/**
+	 * Queue of messages to be sent to a socket which is drained by a task
+	 * submitted to the send executor. At most one task runs for a queue at a
+	 * time, so messages are sent in order.
+	 */
+	private class Outbox implements Runnable, PendingMessages {
+		final DefaultSocket socket;
+		final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicLong length = new AtomicLong();
+		// Long polling transport applies the limit to its buffer instead
+		final boolean bounded;
+		// The transport is closed once the queue is drained after closing
+		volatile boolean closing;
+		final AtomicBoolean closed = new AtomicBoolean();
+
+		Outbox(DefaultSocket socket) {
+			this.socket = socket;
+			this.bounded = !(socket.transport instanceof LongpollTransport);
+		}
+
+		void offer(Message message) {
+			if (closing) {
+				return;
+			}
+			OverflowPolicy applied = bounded ? makeRoom(this, message, overflowPolicy) : null;
+			if (applied == OverflowPolicy.DISCONNECT) {
+				// Pending messages are no longer worth sending
+				while (poll() != null) {
+					continue;
+				}
+			}
+			if (accepts(applied)) {
+				queue.offer(message);
+				count.incrementAndGet();
+				length.addAndGet(message.text.length());
+				schedule();
+			}
+			if (applied != null) {
+				// Notified after the queue is done with the message
+				socket.overflow(applied);
+			}
+		}
+
+		void close() {
+			closing = true;
+			schedule();
+		}
+
+		private Message poll() {
+			Message message = queue.poll();
+			if (message != null) {
+				count.decrementAndGet();
+				length.addAndGet(-message.text.length());
+			}
+			return message;
+		}
+
+		@Override
+		public boolean exceeds(Message message) {
+			return count.get() >= maxPendingMessages || length.get() + message.text.length() > maxPendingSize;
+		}
+
+		@Override
+		public boolean removeOldest() {
+			return poll() != null;
+		}
+
+		@Override
+		public boolean removeSameType(Message message) {
+			for (Message pending : queue) {
+				if (message.type.equals(pending.type) && queue.remove(pending)) {
+					count.decrementAndGet();
+					length.addAndGet(-pending.text.length());
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void schedule() {
+			if ((!queue.isEmpty() || closing && !closed.get()) && scheduled.compareAndSet(false, true)) {
+				sendExecutor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				List<Message> messages = new ArrayList<>();
+				// Writes up to 64 messages at once and gives other sockets a chance
+				for (Message message = poll(); message != null; message = messages.size() < 64 ? poll() : null) {
+					messages.add(message);
+				}
+				if (closed.get()) {
+					// Sent while the socket was being closed
+					return;
+				}
+				flush(messages);
+				if (closing && queue.isEmpty() && closed.compareAndSet(false, true)) {
+					socket.transport.close();
+				}
+			} finally {
+				scheduled.set(false);
+				schedule();
+			}
+		}
+
+		private void flush(List<Message> messages) {
+			if (messages.isEmpty()) {
+				return;
+			}
+			try {
+				if (messages.size() == 1) {
+					socket.transport.send(messages.get(0));
+				} else {
+					socket.transport.send(messages);
+				}
+				socket.sent(messages);
+			} catch (RuntimeException e) {
+				log.error("Failed to send {} messages to socket#{}", messages.size(), socket.id(), e);
+			}
+			messages.clear();
+		}
+	}
+
+	/**
+	 * Queue of messages received by a socket which is drained by a task
+	 * submitted to the dispatch executor. Like {@link Outbox}, at most one
+	 * task runs for a queue at a time, so events are dispatched in order. A
+	 * message is either an unparsed text, a parsed event, a task handed over
+	 * by the timer or the close marker.
+	 */
+	private class Inbox implements Runnable {
+		final DefaultSocket socket;
+		final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Inbox(DefaultSocket socket) {
+			this.socket = socket;
+		}
+
+		void offer(Object message) {
+			queue.offer(message);
+			schedule();
+		}
+
+		private void schedule() {
+			if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+				dispatchExecutor.execute(this);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void run() {
+			try {
+				// Dispatches up to 64 events at once and gives other sockets a chance
+				for (int i = 0; i < 64; i++) {
+					Object message = queue.poll();
+					if (message == null) {
+						break;
+					}
+					try {
+						if (message == CLOSED) {
+							socket.fire("close", null);
+						} else if (message instanceof Runnable) {
+							((Runnable) message).run();
+						} else if (message instanceof String) {
+							socket.onEvent(readEvent((String) message));
+						} else {
+							socket.onEvent((Map<String, Object>) message);
+						}
+					} catch (RuntimeException e) {
+						log.error("Failed to dispatch an event to socket#{}", socket.id(), e);
+					}
+				}
+			} finally {
+				scheduled.set(false);
+				schedule();
+			}
+		}
+	}
+
+	private class WebSocketTransport extends Transport {
+		final ServerWebSocket ws;
+		
+		WebSocketTransport(Map<String, String> params, ServerWebSocket ws) {
+			super(params);
+			this.ws = ws;
+		}
+
+		@Override
+		void start() {
+			ws.closeAction(new VoidAction() {
+				@Override
+				public void on() {
+					socket.onClose();
+				}
+			})
+			.messageAction(new Action<Data>() {
+				@Override
+				public void on(Data data) {
+					socket.onMessage(data.as(String.class));
+				}
+			});
+		}
+		
+		@Override
 		String uri() {
 			return ws.uri();
 		}
 
 		@Override
-		synchronized void send(String data) {
-			ws.send(data);
+		void abort(HttpStatus status) {
+			ws.close();
 		}
 
 		@Override
-		synchronized void close() {
-			ws.close();
+		void send(Message message) {
+			lock.lock();
+			try {
+				ws.send(message.text);
+				written(message.text);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		void close() {
+			lock.lock();
+			try {
+				ws.close();
+			} finally {
+				lock.unlock();
+			}
 		}
 	}
 	
@@ -395,41 +1323,129 @@ public class DefaultServer implements Server {
 		String uri() {
 			return http.uri();
 		}
+
+		@Override
+		void abort(HttpStatus status) {
+			http.setStatus(status).close();
+		}
 	}
 
 	final static String text2KB = CharBuffer.allocate(2048).toString().replace('\0', ' ');
+	final static String text4KB = text2KB + text2KB;
+	final static String streamPrelude = text2KB + "\n";
+	final static String androidStreamPrelude = text4KB + "\n";
+	final static Pattern androidLowerThan3 = Pattern.compile(".*Android\\s[23]\\..*");
 	
 	private class StreamTransport extends HttpTransport {
 		final boolean isAndroidLowerThan3;
+		// Reused by send which holds the lock
+		StringBuilder builder;
 		
 		StreamTransport(Map<String, String> params, ServerHttpExchange http) {
 			super(params, http);
 			String ua = http.requestHeader("user-agent");
-			this.isAndroidLowerThan3 = ua == null ? false : ua.matches(".*Android\\s[23]\\..*");
+			this.isAndroidLowerThan3 = ua == null ? false : androidLowerThan3.matcher(ua).matches();
+		}
+
+		@Override
+		void start() {
 			http.closeAction(new VoidAction() {
 				@Override
 				public void on() {
-					closeActions.fire();
+					socket.onClose();
 				}
 			})
 			.setResponseHeader("content-type",
 				"text/" + (params.get("transport").equals("sse") ? "event-stream" : "plain") + "; charset=utf-8")
-			.write((isAndroidLowerThan3 ? text2KB : "") + text2KB + "\n");
+			.write(isAndroidLowerThan3 ? androidStreamPrelude : streamPrelude);
+			written(isAndroidLowerThan3 ? androidStreamPrelude : streamPrelude);
 		}
 		
 		@Override
-		synchronized void send(String data) {
-			String payload = (isAndroidLowerThan3 ? text2KB + text2KB : "") + "";
-			for (String datum : data.split("\r\n|\r|\n")) {
-				payload += "data: " + datum + "\n";
+		void send(Message message) {
+			lock.lock();
+			try {
+				StringBuilder builder = builder((isAndroidLowerThan3 ? text4KB.length() : 0) + message.text.length() + 8);
+				if (isAndroidLowerThan3) {
+					builder.append(text4KB);
+				}
+				frame(builder, message.text);
+				write(builder);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		void send(List<Message> messages) {
+			lock.lock();
+			try {
+				int capacity = isAndroidLowerThan3 ? text4KB.length() : 0;
+				for (Message message : messages) {
+					capacity += message.text.length() + 8;
+				}
+				StringBuilder builder = builder(capacity);
+				// Padding is needed only once per write
+				if (isAndroidLowerThan3) {
+					builder.append(text4KB);
+				}
+				for (Message message : messages) {
+					frame(builder, message.text);
+				}
+				write(builder);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private StringBuilder builder(int capacity) {
+			if (builder == null || builder.capacity() < capacity) {
+				builder = new StringBuilder(capacity);
+			}
+			builder.setLength(0);
+			return builder;
+		}
+
+		private void frame(StringBuilder builder, String data) {
+			// Trailing line breaks don't make a line
+			int end = data.length();
+			while (end > 0 && (data.charAt(end - 1) == '\r' || data.charAt(end - 1) == '\n')) {
+				end--;
+			}
+			if (end > 0 || data.isEmpty()) {
+				int start = 0;
+				for (int i = 0; i < end; i++) {
+					char c = data.charAt(i);
+					if (c == '\r' || c == '\n') {
+						builder.append("data: ").append(data, start, i).append('\n');
+						if (c == '\r' && data.charAt(i + 1) == '\n') {
+							i++;
+						}
+						start = i + 1;
+					}
+				}
+				builder.append("data: ").append(data, start, end).append('\n');
+			}
+			builder.append('\n');
+		}
+
+		private void write(StringBuilder builder) {
+			http.write(builder.toString());
+			written(builder);
+			// Doesn't hold a large buffer for an idle socket
+			if (builder.capacity() > 8192) {
+				this.builder = null;
 			}
-			payload += "\n";
-			http.write(payload);
 		}
 		
 		@Override
-		synchronized void close() {
-			http.close();
+		void close() {
+			lock.lock();
+			try {
+				http.close();
+			} finally {
+				lock.unlock();
+			}
 		}
 	}
 	
@@ -437,31 +1453,40 @@ public class DefaultServer implements Server {
 		AtomicReference<ServerHttpExchange> httpRef = new AtomicReference<>();
 		AtomicBoolean closed = new AtomicBoolean();
 		AtomicBoolean written = new AtomicBoolean();
-		Set<String> buffer = new CopyOnWriteArraySet<>(); 
-		AtomicReference<Timer> closeTimer = new AtomicReference<>();
+		ReplayBuffer buffer = new ReplayBuffer(Math.min(longpollBufferSize, maxPendingMessages), maxPendingSize, 
+			longpollBufferAge, overflowPolicy);
+		AtomicReference<Timer.Timeout> closeTimeout = new AtomicReference<>();
+		// The buffer size last reported to metrics
+		AtomicInteger reported = new AtomicInteger();
 		
 		LongpollTransport(Map<String, String> params, ServerHttpExchange http) {
 			super(params, http);
-			refresh(http);
 		}
 
-		void refresh(ServerHttpExchange http) {
-			final Map<String, String> parameters = parseURI(http.uri());
+		@Override
+		void start() {
+			refresh(params, http);
+		}
+
+		void refresh(final Map<String, String> parameters, ServerHttpExchange http) {
 			http.closeAction(new VoidAction() {
 				@Override
 				public void on() {
 					closed.set(true);
 					if (parameters.get("when").equals("poll") && !written.get()) {
-						closeActions.fire();
+						socket.onClose();
 					}
-					Timer timer = new Timer(true);
-					timer.schedule(new TimerTask() {
+					closeTimeout.set(timer.schedule(new Runnable() {
 						@Override
 						public void run() {
-							closeActions.fire();
+							socket.handOver(new Runnable() {
+								@Override
+								public void run() {
+									socket.onClose();
+								}
+							});
 						}
-					}, 500);
-					closeTimer.set(timer);
+					}, 500, TimeUnit.MILLISECONDS));
 				}
 			})
 			.setResponseHeader("content-type", 
@@ -473,177 +1498,814 @@ public class DefaultServer implements Server {
 				httpRef.set(http);
 				closed.set(false);
 				written.set(false);
-				Timer timer = closeTimer.getAndSet(null);
-				if (timer != null) {
-					timer.cancel();
+				Timer.Timeout timeout = closeTimeout.getAndSet(null);
+				if (timeout != null) {
+					timeout.cancel();
 				}
 				if (parameters.containsKey("lastEventIds")) {
-					String[] lastEventIds = parameters.get("lastEventIds").split(",");
-					for (String eventId : lastEventIds) {
-						for (String message : buffer) {
-							if (eventId.equals(findEventId(message))) {
-								buffer.remove(message);
-							}
+					buffer.remove(parameters.get("lastEventIds").split(","));
+					measure();
+					String batch = buffer.batch();
+					if (batch != null) {
+						write(batch);
+					}
+				}
+			}
+		}
+
+		@Override
+		void send(Message message) {
+			OverflowPolicy applied;
+			lock.lock();
+			try {
+				applied = buffer(message);
+				if (accepts(applied)) {
+					write(message.text);
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (applied != null) {
+				socket.overflow(applied);
+			}
+		}
+
+		@Override
+		void send(List<Message> messages) {
+			List<OverflowPolicy> overflows = null;
+			lock.lock();
+			try {
+				List<Message> buffered = new ArrayList<>(messages.size());
+				for (Message message : messages) {
+					OverflowPolicy applied = buffer(message);
+					if (accepts(applied)) {
+						buffered.add(message);
+					}
+					if (applied != null) {
+						if (overflows == null) {
+							overflows = new ArrayList<>();
 						}
+						overflows.add(applied);
+					}
+				}
+				if (buffered.size() == 1) {
+					write(buffered.get(0).text);
+				} else if (!buffered.isEmpty()) {
+					int length = buffered.size() + 1;
+					for (Message message : buffered) {
+						length += message.text.length();
 					}
-					if (!buffer.isEmpty()) {
-						Iterator<String> iterator = buffer.iterator();
-						String string = iterator.next();
-						while (iterator.hasNext()) {
-							string += "," + iterator.next();
+					StringBuilder builder = new StringBuilder(length).append('[');
+					for (Message message : buffered) {
+						if (builder.length() > 1) {
+							builder.append(',');
 						}
-						send("[" + string + "]");
+						builder.append(message.text);
 					}
+					write(builder.append(']').toString());
+				}
+			} finally {
+				lock.unlock();
+			}
+			// Notified out of the lock as overflow actions may take a while
+			if (overflows != null) {
+				for (OverflowPolicy applied : overflows) {
+					socket.overflow(applied);
 				}
 			}
 		}
 
-		private String findEventId(String text) {
-			Matcher matcher = Pattern.compile("\"id\":\"([^\"]+)\"").matcher(text);
-			matcher.find();
-			return matcher.group(1);
+		/**
+		 * Adds the given message to the buffer and returns the applied
+		 * overflow policy or {@code null}.
+		 */
+		private OverflowPolicy buffer(Message message) {
+			OverflowPolicy applied = buffer.add(message);
+			measure();
+			return applied;
 		}
 
-		@Override
-		synchronized void send(String data) {
-			if (!data.startsWith("[")) {
-				buffer.add(data);
+		/**
+		 * Reports the change of the buffer size to metrics. The buffer of a
+		 * closed socket counts as empty.
+		 */
+		void measure() {
+			if (metrics != null) {
+				int size = socket.removed ? 0 : buffer.size();
+				int delta = size - reported.getAndSet(size);
+				if (delta != 0) {
+					metrics.longpollBufferChanged(delta);
+				}
 			}
-			ServerHttpExchange http = httpRef.getAndSet(null);
-			if (http != null && !closed.get()) {
-				written.set(true);
-				String payload;
-				try {
-					payload = params.get("transport").equals("longpolljsonp") ? 
-						params.get("callback") + "(" + new ObjectMapper().writeValueAsString(data) + ");" : 
-						data; 
-				} catch (JsonProcessingException e) {
-					throw new RuntimeException(e);
+		}
+
+		void write(String data) {
+			lock.lock();
+			try {
+				ServerHttpExchange http = httpRef.getAndSet(null);
+				if (http != null && !closed.get()) {
+					written.set(true);
+					String payload = params.get("transport").equals("longpolljsonp") ? 
+						params.get("callback") + "(" + eventCodec.quote(data) + ");" : 
+						data;
+					http.close(payload);
+					written(payload);
 				}
-				http.close(payload);
+			} finally {
+				lock.unlock();
 			}
 		}
 		
 		@Override
-		synchronized void close() {
-			ServerHttpExchange http = httpRef.getAndSet(null);
-			if (http != null && !closed.get()) {
-				http.close();
+		void close() {
+			lock.lock();
+			try {
+				ServerHttpExchange http = httpRef.getAndSet(null);
+				if (http != null && !closed.get()) {
+					http.close();
+				}
+			} finally {
+				lock.unlock();
 			}
 		}
 	}
 	
-	private class DefaultSocket implements Socket {
-		final Transport transport;
-		Set<String> tags = new CopyOnWriteArraySet<>();
-		ConcurrentMap<String, Actions<Object>> actionsMap = new ConcurrentHashMap<>();
-		ConcurrentMap<String, Action<Object>> replyMap = new ConcurrentHashMap<>();
+	/**
+	 * Parameters of a query string which is scanned once to find where they
+	 * are and decoded lazily. Portal URIs have a handful of parameters, so a
+	 * linear scan over them is cheaper than hashing. If a name is repeated,
+	 * the last one wins.
+	 */
+	static final class Query extends AbstractMap<String, String> {
+		final String uri;
+		// Start and end of name and value of each parameter
+		final int[] ranges;
+		final int size;
+		final String[] names;
+		final String[] values;
+		// Indexes of parameters not repeated later, found when first needed
+		volatile int[] distinct;
 
-		DefaultSocket(final Transport transport) {
-			this.transport = transport;
-			transport.closeActions.add(new VoidAction() {
-				@Override
-				public void on() {
-					sockets.remove(transport.params.get("id"));
-					Actions<Object> closeActions = actionsMap.get("close");
-					if (closeActions != null) {
-						closeActions.fire();
+		Query(String uri) {
+			this.uri = uri;
+			int start = uri.indexOf('?') + 1;
+			int end = uri.indexOf('#', start);
+			if (end < 0) {
+				end = uri.length();
+			}
+			int count = 0;
+			if (start > 0 && start < end) {
+				count = 1;
+				for (int i = start; i < end; i++) {
+					if (uri.charAt(i) == '&') {
+						count++;
 					}
 				}
-			});
-			transport.messageActions.add(new Action<String>() {
-				@Override
-				public void on(String text) {
-					final Map<String, Object> event = parseEvent(text);
-					Actions<Object> actions = actionsMap.get(event.get("type"));
-					if (actions != null) {
-						if ((Boolean) event.get("reply")) {
-							actions.fire(new Reply<Object>() {
-								@Override
-								public Object data() {
-									return event.get("data");
-								}
-
-								@Override
-								public void done() {
-									done(null);
-								}
+			}
+			int[] ranges = new int[count * 4];
+			int size = 0;
+			for (int i = start; count > 0 && i <= end;) {
+				int ampersand = uri.indexOf('&', i);
+				if (ampersand < 0 || ampersand > end) {
+					ampersand = end;
+				}
+				int equals = uri.indexOf('=', i);
+				if (equals < 0 || equals > ampersand) {
+					equals = ampersand;
+				}
+				if (equals > i) {
+					int offset = size++ * 4;
+					ranges[offset] = i;
+					ranges[offset + 1] = equals;
+					ranges[offset + 2] = Math.min(equals + 1, ampersand);
+					ranges[offset + 3] = ampersand;
+				}
+				i = ampersand + 1;
+			}
+			this.ranges = ranges;
+			this.size = size;
+			this.names = new String[size];
+			this.values = new String[size];
+		}
 
-								@Override
-								public void done(Object value) {
-									sendReply(value, false);
-								}
+		@Override
+		public String get(Object key) {
+			int index = indexOf(key);
+			return index < 0 ? null : value(index);
+		}
 
-								@Override
-								public void fail() {
-									fail(null);
-								}
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOf(key) >= 0;
+		}
 
-								@Override
-								public void fail(Object value) {
-									sendReply(value, true);
-								}
+		@Override
+		public int size() {
+			return distinct().length;
+		}
 
-								AtomicBoolean sent = new AtomicBoolean();
-								private void sendReply(Object value, boolean exception) {
-									if (sent.compareAndSet(false, true)) {
-										Map<String, Object> result = new LinkedHashMap<String, Object>();
-										result.put("id", event.get("id"));
-										result.put("data", value);
-										result.put("exception", exception);
-										send("reply", result);
-									}
-								}
-							});
-						} else {
-							actions.fire(event.get("data"));
-						}
+		private int[] distinct() {
+			int[] distinct = this.distinct;
+			if (distinct == null) {
+				int count = 0;
+				int[] indexes = new int[size];
+				for (int i = 0; i < size; i++) {
+					if (indexOf(name(i)) == i) {
+						indexes[count++] = i;
 					}
 				}
-			});
-			on("reply", new Action<Map<String, Object>>() {
-				@Override
-				public void on(Map<String, Object> info) {
-					Action<Object> reply = replyMap.remove(info.get("id"));
-					if (reply != null) {
-						reply.on(info.get("data"));
-					} else {
-						log.error("Reply callback not found in socket#{} with info, {}", id(), info);
+				distinct = this.distinct = count == size ? indexes : Arrays.copyOf(indexes, count);
+			}
+			return distinct;
+		}
+
+		int indexOf(Object key) {
+			if (key instanceof String) {
+				// The last one wins if a name is repeated
+				for (int i = size - 1; i >= 0; i--) {
+					if (key.equals(name(i))) {
+						return i;
 					}
 				}
-			});
+			}
+			return -1;
+		}
+
+		String name(int index) {
+			String name = names[index];
+			if (name == null) {
+				name = names[index] = decode(ranges[index * 4], ranges[index * 4 + 1]);
+			}
+			return name;
+		}
+
+		String value(int index) {
+			String value = values[index];
+			if (value == null) {
+				value = values[index] = decode(ranges[index * 4 + 2], ranges[index * 4 + 3]);
+			}
+			return value;
+		}
+
+		private String decode(int start, int end) {
+			String text = uri.substring(start, end);
+			if (text.indexOf('%') < 0 && text.indexOf('+') < 0) {
+				return text;
+			}
 			try {
-				new HeartbeatHelper(Long.valueOf(transport.params.get("heartbeat")));
-			} catch (NumberFormatException e) {}
-			
-			sockets.put(id(), this);
+				return URLDecoder.decode(text, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
 		}
-		
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					final int[] distinct = distinct();
+					return new Iterator<Entry<String, String>>() {
+						int index;
+
+						@Override
+						public boolean hasNext() {
+							return index < distinct.length;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (index >= distinct.length) {
+								throw new NoSuchElementException();
+							}
+							int i = distinct[index++];
+							return new SimpleImmutableEntry<>(name(i), value(i));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return distinct().length;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Messages not yet acknowledged by the client in order of sending, which
+	 * are bounded in number and age.
+	 */
+	private static class ReplayBuffer implements PendingMessages {
+		final int maxSize;
+		final long maxLength;
+		final long maxAge;
+		final OverflowPolicy policy;
+		final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+		long length;
+
+		ReplayBuffer(int maxSize, long maxLength, long maxAge, OverflowPolicy policy) {
+			this.maxSize = maxSize;
+			this.maxLength = maxLength;
+			this.maxAge = maxAge;
+			this.policy = policy;
+		}
+
+		/**
+		 * Adds the given message and returns the applied policy if it exceeds
+		 * the limit or {@code null}. The message is not added if the policy is
+		 * either {@link OverflowPolicy#DROP_NEWEST} or
+		 * {@link OverflowPolicy#DISCONNECT}.
+		 */
+		synchronized OverflowPolicy add(Message message) {
+			trim();
+			OverflowPolicy applied = makeRoom(this, message, policy);
+			if (applied != OverflowPolicy.DROP_NEWEST && applied != OverflowPolicy.DISCONNECT) {
+				put(message);
+			}
+			return applied;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		@Override
+		public boolean exceeds(Message message) {
+			return entries.size() >= maxSize || length + message.text.length() > maxLength;
+		}
+
+		@Override
+		public boolean removeOldest() {
+			return removeFirst(null);
+		}
+
+		@Override
+		public boolean removeSameType(Message message) {
+			return removeFirst(message.type);
+		}
+
+		private boolean removeFirst(String type) {
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (type == null || type.equals(entry.message.type)) {
+					iterator.remove();
+					length -= entry.message.text.length();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void put(Message message) {
+			Entry entry = entries.put(message.eventId, new Entry(message, System.currentTimeMillis()));
+			if (entry != null) {
+				length -= entry.message.text.length();
+			}
+			length += message.text.length();
+		}
+
+		synchronized void remove(String[] eventIds) {
+			for (String eventId : eventIds) {
+				Entry entry = entries.remove(eventId);
+				if (entry != null) {
+					length -= entry.message.text.length();
+				}
+			}
+		}
+
+		/**
+		 * Returns messages as a JSON array or {@code null} if there is no
+		 * message.
+		 */
+		synchronized String batch() {
+			trim();
+			if (entries.isEmpty()) {
+				return null;
+			}
+			StringBuilder builder = new StringBuilder((int) Math.min(length + entries.size() + 1, Integer.MAX_VALUE)).append('[');
+			for (Entry entry : entries.values()) {
+				if (builder.length() > 1) {
+					builder.append(',');
+				}
+				builder.append(entry.message.text);
+			}
+			return builder.append(']').toString();
+		}
+
+		private void trim() {
+			long expiration = System.currentTimeMillis() - maxAge;
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (entry.timestamp < expiration) {
+					iterator.remove();
+					length -= entry.message.text.length();
+				} else {
+					break;
+				}
+			}
+		}
+
+		static class Entry {
+			final Message message;
+			final long timestamp;
+
+			Entry(Message message, long timestamp) {
+				this.message = message;
+				this.timestamp = timestamp;
+			}
+		}
+	}
+
+	/**
+	 * Reply callback waiting for the counterpart to reply.
+	 */
+	private class PendingReply {
+		final Action<Object> action;
+		final Action<Throwable> failure;
+		volatile Timer.Timeout timeout;
+
+		PendingReply(Action<Object> action, Action<Throwable> failure) {
+			this.action = action;
+			this.failure = failure;
+		}
+
+		void fail(Throwable cause) {
+			if (timeout != null) {
+				timeout.cancel();
+			}
+			if (failure != null) {
+				failure.on(cause);
+			} else {
+				log.debug("Reply callback discarded", cause);
+			}
+		}
+	}
+
+	private class DefaultSocket implements Socket {
+		final Transport transport;
+		final TagSet tags = new TagSet();
+		final Outbox outbox;
+		final Inbox inbox;
+		volatile boolean removed;
+		// Event types and arrays of their actions in turn, copied on write
+		volatile Object[] handlers = NO_HANDLERS;
+		// Created when the first event requiring reply is sent
+		volatile ConcurrentMap<String, PendingReply> replyMap;
+		HeartbeatHelper heartbeat;
+
+		DefaultSocket(final Transport transport) {
+			this.transport = transport;
+			this.outbox = sendExecutor != null ? new Outbox(this) : null;
+			this.inbox = dispatchExecutor != null ? new Inbox(this) : null;
+			String delay = transport.params.get("heartbeat");
+			if (delay != null && !delay.equals("false")) {
+				try {
+					heartbeat = new HeartbeatHelper(Long.valueOf(delay));
+				} catch (NumberFormatException e) {}
+			}
+
+			if (metrics != null) {
+				metrics.socketOpened(transport.name);
+			}
+			// The transport starts to notify the socket once it's created
+			transport.socket = this;
+			sockets.put(id(), this);
+		}
+
+		/**
+		 * Called by the transport with a message from the client.
+		 */
+		void onMessage(String text) {
+			if (metrics != null) {
+				metrics.eventReceived(transport.name, utf8Length(text));
+			}
+			if (inbox != null) {
+				inbox.offer(text);
+			} else {
+				onEvent(readEvent(text));
+			}
+		}
+
+		/**
+		 * Dispatches a parsed event through the inbox if any.
+		 */
+		void dispatch(Map<String, Object> event) {
+			if (inbox != null) {
+				inbox.offer(event);
+			} else {
+				onEvent(event);
+			}
+		}
+
+		/**
+		 * Called by the transport when the connection is closed.
+		 */
+		void onClose() {
+			synchronized (this) {
+				if (removed) {
+					return;
+				}
+				removed = true;
+			}
+			sockets.remove(transport.params.get("id"));
+			release(transport.name);
+			for (String name : tags) {
+				unindex(name, this);
+			}
+			ConcurrentMap<String, PendingReply> replyMap = this.replyMap;
+			if (replyMap != null) {
+				for (String eventId : replyMap.keySet()) {
+					PendingReply reply = replyMap.remove(eventId);
+					if (reply != null) {
+						discard(reply);
+					}
+				}
+			}
+			if (metrics != null) {
+				metrics.socketClosed(transport.name);
+				if (transport instanceof LongpollTransport) {
+					((LongpollTransport) transport).measure();
+				}
+			}
+			if (heartbeat != null) {
+				heartbeat.cancel();
+			}
+			if (inbox != null) {
+				inbox.offer(CLOSED);
+			} else {
+				fire("close", null);
+			}
+		}
+
+		/**
+		 * Fails the given pending reply removed from the map as the socket has
+		 * been closed.
+		 */
+		private void discard(final PendingReply reply) {
+			if (metrics != null) {
+				metrics.pendingRepliesChanged(-1);
+			}
+			Runnable failure = new Runnable() {
+				@Override
+				public void run() {
+					reply.fail(new IllegalStateException("Socket#" + id() + " has been closed"));
+				}
+			};
+			// Failure callbacks are actions of the socket as well
+			if (inbox != null) {
+				inbox.offer(failure);
+			} else {
+				failure.run();
+			}
+		}
+
+		private void onReply(Map<String, Object> info) {
+			ConcurrentMap<String, PendingReply> replyMap = this.replyMap;
+			PendingReply reply = replyMap != null ? replyMap.remove(info.get("id")) : null;
+			if (reply != null) {
+				if (metrics != null) {
+					metrics.pendingRepliesChanged(-1);
+				}
+				if (reply.timeout != null) {
+					reply.timeout.cancel();
+				}
+				reply.action.on(info.get("data"));
+			} else {
+				log.error("Reply callback not found in socket#{} with info, {}", id(), info);
+			}
+		}
+
+		/**
+		 * Dispatches a parsed event to the actions registered for its type.
+		 * The built-in events, reply and heartbeat, are handled first. Data
+		 * is not read at all if there is no action for the event.
+		 */
+		@SuppressWarnings("unchecked")
+		void onEvent(final Map<String, Object> event) {
+			Object type = event.get("type");
+			if ("reply".equals(type)) {
+				onReply((Map<String, Object>) event.get("data"));
+			} else if ("heartbeat".equals(type) && heartbeat != null) {
+				heartbeat.beat();
+			}
+			Object[] actions = actions(type);
+			if (actions != null) {
+				if ((Boolean) event.get("reply")) {
+					fire(actions, new Reply<Object>() {
+						@Override
+						public Object data() {
+							return event.get("data");
+						}
+
+						@Override
+						public void done() {
+							done(null);
+						}
+
+						@Override
+						public void done(Object value) {
+							sendReply(value, false);
+						}
+
+						@Override
+						public void fail() {
+							fail(null);
+						}
+
+						@Override
+						public void fail(Object value) {
+							sendReply(value, true);
+						}
+
+						AtomicBoolean sent = new AtomicBoolean();
+						private void sendReply(Object value, boolean exception) {
+							if (sent.compareAndSet(false, true)) {
+								Map<String, Object> result = new LinkedHashMap<String, Object>();
+								result.put("id", event.get("id"));
+								result.put("data", value);
+								result.put("exception", exception);
+								send("reply", result);
+							}
+						}
+					});
+				} else if (event instanceof JacksonEventCodec.LazyEvent) {
+					fire(actions, (JacksonEventCodec.LazyEvent) event);
+				} else {
+					fire(actions, event.get("data"));
+				}
+			}
+		}
+
+		private Object[] actions(Object type) {
+			Object[] handlers = this.handlers;
+			for (int i = 0; i < handlers.length; i += 2) {
+				if (handlers[i].equals(type)) {
+					return (Object[]) handlers[i + 1];
+				}
+			}
+			return null;
+		}
+
+		private void fire(String type, Object data) {
+			Object[] actions = actions(type);
+			if (actions != null) {
+				fire(actions, data);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void fire(Object[] actions, Object data) {
+			for (Object action : actions) {
+				((Action<Object>) action).on(data);
+			}
+		}
+
+		/**
+		 * Fires actions binding data to the type each action declares.
+		 */
+		@SuppressWarnings("unchecked")
+		private void fire(Object[] actions, JacksonEventCodec.LazyEvent event) {
+			for (Object action : actions) {
+				((Action<Object>) action).on(event.data(dataType(action)));
+			}
+		}
+
+		/**
+		 * Runs the given work of an expired timeout off the thread of the
+		 * timer, through the inbox if any to keep it in order with events.
+		 */
+		void handOver(Runnable task) {
+			if (inbox != null) {
+				inbox.offer(task);
+			} else {
+				timeoutExecutor.execute(task);
+			}
+		}
+
 		class HeartbeatHelper {
 			final long delay;
-			AtomicReference<Timer> timer = new AtomicReference<>();
-			
+			AtomicReference<Timer.Timeout> timeout = new AtomicReference<>();
+
 			HeartbeatHelper(long delay) {
 				this.delay = delay;
-				timer.set(createTimer());
-				on("heartbeat", new VoidAction() {
+				timeout.set(schedule());
+			}
+
+			void beat() {
+				timeout.getAndSet(schedule()).cancel();
+				send("heartbeat");
+			}
+
+			void cancel() {
+				timeout.get().cancel();
+			}
+
+			Timer.Timeout schedule() {
+				return timer.schedule(new Runnable() {
 					@Override
-					public void on() {
-						timer.getAndSet(createTimer()).cancel();
-						send("heartbeat");
+					public void run() {
+						handOver(new Runnable() {
+							@Override
+							public void run() {
+								if (metrics != null) {
+									metrics.heartbeatTimedOut(transport.name);
+								}
+								close();
+							}
+						});
 					}
-				});
+				}, delay, TimeUnit.MILLISECONDS);
 			}
-			
-			Timer createTimer() {
-				Timer timer = new Timer(true);
-				timer.schedule(new TimerTask() {
+		}
+
+		/**
+		 * Set of tag names keeping the tag index of the server in sync.
+		 */
+		class TagSet extends AbstractSet<String> {
+			// Created when the first tag is added
+			volatile Set<String> names;
+
+			@Override
+			public boolean add(String name) {
+				Set<String> names = this.names;
+				if (names == null) {
+					synchronized (this) {
+						names = this.names;
+						if (names == null) {
+							this.names = names = new CopyOnWriteArraySet<>();
+						}
+					}
+				}
+				if (names.add(name)) {
+					index(name, DefaultSocket.this);
+					// The socket may have been closed in the meantime
+					if (removed) {
+						unindex(name, DefaultSocket.this);
+					}
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public boolean remove(Object name) {
+				Set<String> names = this.names;
+				if (names != null && names.remove(name)) {
+					unindex((String) name, DefaultSocket.this);
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public boolean contains(Object name) {
+				Set<String> names = this.names;
+				return names != null && names.contains(name);
+			}
+
+			@Override
+			public int size() {
+				Set<String> names = this.names;
+				return names != null ? names.size() : 0;
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				Set<String> names = this.names;
+				if (names == null) {
+					return Collections.emptyIterator();
+				}
+				final Iterator<String> iterator = names.iterator();
+				return new Iterator<String>() {
+					String current;
+
 					@Override
-					public void run() {
-						close();
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return current = iterator.next();
 					}
-				}, delay);
-				return timer;
+
+					@Override
+					public void remove() {
+						if (current == null) {
+							throw new IllegalStateException();
+						}
+						TagSet.this.remove(current);
+						current = null;
+					}
+				};
 			}
 		}
 
@@ -662,27 +2324,47 @@ public class DefaultServer implements Server {
 			return tags;
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
-		public <T> Socket on(String event, Action<T> action) {
-			Actions<Object> actions = actionsMap.get(event);
-			if (actions == null) {
-				Actions<Object> value = new ConcurrentActions<>();
-				actions = actionsMap.putIfAbsent(event, value);
-				if (actions == null) {
-					actions = value;
+		public synchronized <T> Socket on(String event, Action<T> action) {
+			Object[] handlers = this.handlers;
+			for (int i = 0; i < handlers.length; i += 2) {
+				if (handlers[i].equals(event)) {
+					Object[] actions = (Object[]) handlers[i + 1];
+					Object[] copy = Arrays.copyOf(actions, actions.length + 1);
+					copy[actions.length] = action;
+					handlers = handlers.clone();
+					handlers[i + 1] = copy;
+					this.handlers = handlers;
+					return this;
 				}
 			}
-			actions.add((Action<Object>) action);
+			handlers = Arrays.copyOf(handlers, handlers.length + 2);
+			handlers[handlers.length - 2] = event;
+			handlers[handlers.length - 1] = new Object[] { action };
+			this.handlers = handlers;
 			return this;
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
-		public <T> Socket off(String event, Action<T> action) {
-			Actions<Object> actions = actionsMap.get(event);
-			if (actions != null) {
-				actions.remove((Action<Object>) action);
+		public synchronized <T> Socket off(String event, Action<T> action) {
+			Object[] handlers = this.handlers;
+			for (int i = 0; i < handlers.length; i += 2) {
+				if (handlers[i].equals(event)) {
+					List<Object> actions = new ArrayList<>(Arrays.asList((Object[]) handlers[i + 1]));
+					if (actions.remove(action)) {
+						if (actions.isEmpty()) {
+							Object[] copy = new Object[handlers.length - 2];
+							System.arraycopy(handlers, 0, copy, 0, i);
+							System.arraycopy(handlers, i + 2, copy, i, handlers.length - i - 2);
+							this.handlers = copy;
+						} else {
+							handlers = handlers.clone();
+							handlers[i + 1] = actions.toArray();
+							this.handlers = handlers;
+						}
+					}
+					break;
+				}
 			}
 			return this;
 		}
@@ -697,10 +2379,88 @@ public class DefaultServer implements Server {
 			return send(event, data, null);
 		}
 
-		@SuppressWarnings("unchecked")
+		/**
+		 * Splices the given JSON into the event unless
+		 * {@link DefaultServer#stringifyEvent(Map)} is overridden, in which
+		 * case it has to be parsed to go through that method.
+		 */
+		@Override
+		public Socket sendRaw(String event, String json) {
+			if (stringifyEventOverridden) {
+				return send(event, eventCodec.decode("{\"data\":" + json + "}").get("data"));
+			}
+			checkRaw(event, json);
+			sendPrepared(event, rawRemainder(event, json));
+			return this;
+		}
+
+		/**
+		 * Sends an event whose properties except id are already stringified.
+		 */
+		void sendPrepared(String type, String remainder) {
+			String eventId = eventIdGenerator.generate();
+			write(new Message(eventId, type, "{\"id\":\"" + eventId + "\"," + remainder));
+		}
+
+		private void write(Message message) {
+			boolean timed = metrics != null || maxSendLatency > 0;
+			if (timed) {
+				message.created = System.nanoTime();
+			}
+			if (outbox != null) {
+				outbox.offer(message);
+			} else {
+				transport.send(message);
+				if (timed) {
+					sent(message, System.nanoTime());
+				}
+			}
+		}
+
+		/**
+		 * Reports the given messages handed over to the transport to metrics
+		 * and samples their latency for shedding new sockets.
+		 */
+		void sent(List<Message> messages) {
+			if (metrics != null || maxSendLatency > 0) {
+				long now = System.nanoTime();
+				for (Message message : messages) {
+					sent(message, now);
+				}
+			}
+		}
+
+		private void sent(Message message, long now) {
+			if (metrics != null) {
+				metrics.eventSent(transport.name, now - message.created);
+			}
+			// Not timed if shedding was enabled after the message was sent
+			if (maxSendLatency > 0 && message.created != 0) {
+				sampleSendLatency(now - message.created, now);
+			}
+		}
+
+		/**
+		 * Notifies that a message has exceeded the outbound limit and closes
+		 * the socket if the applied policy says so. It must not be called
+		 * while holding a lock of the transport.
+		 */
+		void overflow(OverflowPolicy applied) {
+			overflowActions.fire(this);
+			if (applied == OverflowPolicy.DISCONNECT) {
+				close();
+			}
+		}
+
 		@Override
 		public <T> Socket send(String type, Object data, Action<T> reply) {
-			String eventId = UUID.randomUUID().toString();
+			return send(type, data, reply, null);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T> Socket send(String type, Object data, Action<T> reply, Action<Throwable> failure) {
+			String eventId = eventIdGenerator.generate();
 			Map<String, Object> event = new LinkedHashMap<String, Object>();
 
 			event.put("id", eventId);
@@ -709,16 +2469,64 @@ public class DefaultServer implements Server {
 			event.put("reply", reply != null);
 			
 			String text = stringifyEvent(event);
-			transport.send(text);
 			if (reply != null) {
-				replyMap.put(eventId, (Action<Object>) reply);
+				final PendingReply pendingReply = new PendingReply((Action<Object>) reply, failure);
+				final ConcurrentMap<String, PendingReply> replyMap = replyMap();
+				replyMap.put(eventId, pendingReply);
+				if (metrics != null) {
+					metrics.pendingRepliesChanged(1);
+				}
+				// The map may have been drained by onClose before the put
+				if (removed) {
+					if (replyMap.remove(eventId, pendingReply)) {
+						discard(pendingReply);
+					}
+					return this;
+				}
+				if (replyTimeout > 0) {
+					final String id = eventId;
+					pendingReply.timeout = timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							if (replyMap.remove(id, pendingReply)) {
+								if (metrics != null) {
+									metrics.pendingRepliesChanged(-1);
+								}
+								handOver(new Runnable() {
+									@Override
+									public void run() {
+										pendingReply.fail(new TimeoutException("No reply to event#" + id + " in socket#" + id()));
+									}
+								});
+							}
+						}
+					}, replyTimeout, TimeUnit.MILLISECONDS);
+				}
 			}
+			write(new Message(eventId, type, text));
 			return this;
 		}
 
+		private ConcurrentMap<String, PendingReply> replyMap() {
+			ConcurrentMap<String, PendingReply> map = replyMap;
+			if (map == null) {
+				synchronized (this) {
+					map = replyMap;
+					if (map == null) {
+						replyMap = map = new ConcurrentHashMap<>(4, 0.75f, 1);
+					}
+				}
+			}
+			return map;
+		}
+
 		@Override
 		public Socket close() {
-			transport.close();
+			if (outbox != null) {
+				outbox.close();
+			} else {
+				transport.close();
+			}
 			return this;
 		}
 
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.Map;
+
+/**
+ * Interface used to convert an event object to a text and vice versa.
+ * <p>
+ * A single instance is shared by all of the socket in a {@link DefaultServer}
+ * so it may be accessed by multiple threads and should be thread-safe.
+ * 
+ * @author Donghwan Kim
+ * @see JacksonEventCodec
+ */
+public interface EventCodec {
+
+	/**
+	 * Takes a stringified event and returns an event object.
+	 */
+	Map<String, Object> decode(String text);
+
+	/**
+	 * Takes an event object and returns a stringified event.
+	 */
+	String encode(Map<String, Object> event);
+
+	/**
+	 * Takes a text and returns it as a JSON string literal, which is used to
+	 * wrap a message in a JSONP callback.
+	 */
+	String quote(String text);
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+/**
+ * Interface used to generate the id of an event sent by the server.
+ * <p>
+ * An id has to be unique within a socket and is used by the client to reply
+ * to the event and to acknowledge it in long polling. It's written to the
+ * event as it is and joined with comma by long polling client, so it must
+ * consist of characters that don't need to be escaped in a JSON string and
+ * must not contain comma. A single instance is shared by all of the socket in
+ * a {@link DefaultServer} so it may be accessed by multiple threads and should
+ * be thread-safe.
+ * 
+ * @author Donghwan Kim
+ * @see SequenceEventIdGenerator
+ */
+public interface EventIdGenerator {
+
+	/**
+	 * Returns a new event id.
+	 */
+	String generate();
+
+}
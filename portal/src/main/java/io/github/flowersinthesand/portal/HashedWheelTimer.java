@@ -0,0 +1,311 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timer scheduling a number of tasks on a single thread using a hashed wheel.
+ * <p>
+ * Scheduling and cancelling a task are O(1) and never create a thread, so
+ * it's suitable for timeouts that are rescheduled very often and mostly
+ * cancelled before they expire like heartbeat. In return, a task is executed
+ * at the first tick after its delay, so the precision is the tick duration.
+ * <p>
+ * The thread is created when the first task is scheduled and runs all the
+ * expired tasks in turn. Therefore, a task should be short and must not
+ * block. A single instance is shared by all of the socket in a
+ * {@link DefaultServer} and may be shared by several servers as well.
+ *
+ * @author Donghwan Kim
+ */
+public class HashedWheelTimer implements Timer {
+
+	private static final int INIT = 0;
+	private static final int STARTED = 1;
+	private static final int STOPPED = 2;
+	private static final int WAITING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<Timeout> timeouts = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger state = new AtomicInteger(INIT);
+	private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+	private final Thread worker;
+	private volatile long startTime;
+
+	/**
+	 * Creates a timer ticking every 100 milliseconds with 512 buckets.
+	 */
+	public HashedWheelTimer() {
+		this(100, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Creates a timer ticking every given duration with the given number of
+	 * buckets. The number of buckets is rounded up to a power of two.
+	 */
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+			throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+		}
+		int length = 1;
+		while (length < ticksPerWheel) {
+			length <<= 1;
+		}
+		this.wheel = new Bucket[length];
+		for (int i = 0; i < length; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = length - 1;
+		this.tickDuration = unit.toNanos(tickDuration);
+		this.worker = new Thread(new Worker(), "portal-timer");
+		worker.setDaemon(true);
+	}
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+		Timeout timeout = new Timeout(task, deadline);
+		timeouts.add(timeout);
+		return timeout;
+	}
+
+	private void start() {
+		switch (state.get()) {
+		case INIT:
+			if (state.compareAndSet(INIT, STARTED)) {
+				worker.start();
+			}
+			break;
+		case STARTED:
+			break;
+		default:
+			throw new IllegalStateException("Timer is already stopped");
+		}
+		while (startTime == 0) {
+			try {
+				startTimeInitialized.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the thread. Tasks not yet executed are discarded.
+	 */
+	public void stop() {
+		if (state.getAndSet(STOPPED) == STARTED) {
+			worker.interrupt();
+		}
+	}
+
+	private class Worker implements Runnable {
+		long tick;
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			startTime = now == 0 ? 1 : now;
+			startTimeInitialized.countDown();
+
+			while (state.get() == STARTED) {
+				long deadline = waitForNextTick();
+				if (deadline > 0) {
+					removeCancelledTimeouts();
+					transferTimeouts();
+					wheel[(int) (tick & mask)].expire(deadline);
+					tick++;
+				}
+			}
+		}
+
+		private long waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			for (;;) {
+				long current = System.nanoTime() - startTime;
+				long sleepTime = (deadline - current + 999999) / 1000000;
+				if (sleepTime <= 0) {
+					return current;
+				}
+				try {
+					Thread.sleep(sleepTime);
+				} catch (InterruptedException e) {
+					if (state.get() == STOPPED) {
+						return -1;
+					}
+				}
+			}
+		}
+
+		private void transferTimeouts() {
+			// Caps the number of timeouts to transfer so that a flood of
+			// scheduling can't stall the wheel
+			for (int i = 0; i < 100000; i++) {
+				Timeout timeout = timeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				if (timeout.state.get() == CANCELLED) {
+					continue;
+				}
+				long calculated = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+			}
+		}
+
+		private void removeCancelledTimeouts() {
+			for (;;) {
+				Timeout timeout = cancelledTimeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of timeouts which is only accessed by the worker.
+	 */
+	private class Bucket {
+		Timeout head;
+		Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expire(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if (timeout.deadline <= deadline) {
+						timeout.expire();
+					} else {
+						// Shouldn't happen but doesn't lose the timeout
+						timeouts.add(timeout);
+					}
+				} else if (timeout.state.get() == CANCELLED) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.bucket != this) {
+				return;
+			}
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = timeout.next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	/**
+	 * Handle of a scheduled task.
+	 *
+	 * @author Donghwan Kim
+	 */
+	public class Timeout implements Timer.Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout prev;
+		private Timeout next;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (state.compareAndSet(WAITING, CANCELLED)) {
+				cancelledTimeouts.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		void expire() {
+			if (state.compareAndSet(WAITING, EXPIRED)) {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					log.error("Exception thrown by timer task {}", task, e);
+				}
+			}
+		}
+	}
+
+}
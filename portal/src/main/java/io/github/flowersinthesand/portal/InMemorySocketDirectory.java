@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link SocketDirectory} kept in memory. It's shared only by servers in the
+ * same JVM, so it's useful for tests and as a stand-in of a distributed store.
+ * 
+ * @author Donghwan Kim
+ */
+public class InMemorySocketDirectory implements SocketDirectory {
+
+	private final ConcurrentMap<String, String> nodes = new ConcurrentHashMap<>();
+
+	@Override
+	public void put(String socketId, String nodeId) {
+		nodes.put(socketId, nodeId);
+	}
+
+	@Override
+	public void remove(String socketId, String nodeId) {
+		nodes.remove(socketId, nodeId);
+	}
+
+	@Override
+	public String get(String socketId) {
+		return nodes.get(socketId);
+	}
+
+}
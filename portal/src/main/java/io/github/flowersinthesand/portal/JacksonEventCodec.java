@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Default implementation of {@link EventCodec} using Jackson.
+ * <p>
+ * {@link ObjectReader} and {@link ObjectWriter} are immutable and thread-safe,
+ * so they are created once from the given {@link ObjectMapper} and shared
+ * across all events instead of creating a mapper per event.
+ * <p>
+ * {@link DefaultServer} reads inbound events through
+ * {@link JacksonEventCodec#decodeLazily(String)} unless it's customized, so
+ * that data of an event is bound only if someone listens to the event.
+ * 
+ * @author Donghwan Kim
+ */
+public class JacksonEventCodec implements EventCodec {
+
+	private final ObjectMapper mapper;
+	private final ObjectReader eventReader;
+	private final ObjectReader dataReader;
+	private final ObjectWriter writer;
+
+	public JacksonEventCodec() {
+		this(new ObjectMapper());
+	}
+
+	public JacksonEventCodec(ObjectMapper mapper) {
+		this.mapper = mapper;
+		this.eventReader = mapper.reader(new TypeReference<Map<String, Object>>() {});
+		this.dataReader = mapper.reader(Object.class);
+		this.writer = mapper.writer();
+	}
+
+	/**
+	 * The underlying mapper.
+	 */
+	public ObjectMapper mapper() {
+		return mapper;
+	}
+
+	@Override
+	public Map<String, Object> decode(String text) {
+		try {
+			return eventReader.readValue(text);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns whether the given text is a single and valid JSON value.
+	 */
+	boolean isValue(String text) {
+		try {
+			JsonParser parser = mapper.getFactory().createParser(text);
+			try {
+				if (parser.nextToken() == null) {
+					return false;
+				}
+				parser.skipChildren();
+				return parser.nextToken() == null;
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Takes a stringified event and returns an event object reading only its
+	 * top-level fields. Data is skipped over without being bound and bound
+	 * when it's read for the first time.
+	 */
+	LazyEvent decodeLazily(String text) {
+		try {
+			JsonParser parser = mapper.getFactory().createParser(text);
+			try {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new IllegalArgumentException("Event should be a JSON object: " + text);
+				}
+				LazyEvent event = new LazyEvent(text);
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					JsonToken token = parser.nextToken();
+					if (name.equals("data")) {
+						event.hasData = true;
+					}
+					if (name.equals("data") && (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)) {
+						// The parser has consumed the opening bracket already
+						event.dataStart = (int) parser.getCurrentLocation().getCharOffset() - 1;
+						event.dataObject = token == JsonToken.START_OBJECT;
+						parser.skipChildren();
+						event.dataEnd = (int) parser.getCurrentLocation().getCharOffset();
+					} else if (name.equals("data")) {
+						event.data = readValue(parser, token);
+					} else {
+						event.fields.put(name, readValue(parser, token));
+					}
+				}
+				return event;
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Object readValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return null;
+		default:
+			return mapper.readValue(parser, Object.class);
+		}
+	}
+
+	@Override
+	public String encode(Map<String, Object> event) {
+		try {
+			return writer.writeValueAsString(event);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String quote(String text) {
+		try {
+			return writer.writeValueAsString(text);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Event object returned by {@link JacksonEventCodec#decodeLazily(String)}.
+	 * It's read-only and data of object or array is kept as a range of the
+	 * original text until it's read.
+	 */
+	final class LazyEvent extends AbstractMap<String, Object> {
+		final String text;
+		final Map<String, Object> fields = new LinkedHashMap<>(4);
+		boolean hasData;
+		int dataStart = -1;
+		int dataEnd;
+		boolean dataObject;
+		volatile Object data;
+
+		LazyEvent(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public Object get(Object key) {
+			return "data".equals(key) ? data() : fields.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return "data".equals(key) ? hasData : fields.containsKey(key);
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			Map<String, Object> map = new LinkedHashMap<>(fields);
+			if (hasData) {
+				map.put("data", data());
+			}
+			return map.entrySet();
+		}
+
+		/**
+		 * Returns data as the Java type corresponding to its JSON type.
+		 */
+		Object data() {
+			Object data = this.data;
+			if (data == null && dataStart >= 0) {
+				try {
+					data = this.data = dataReader.readValue(text.substring(dataStart, dataEnd));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return data;
+		}
+
+		/**
+		 * Returns data as the given type. If data is an object or an array
+		 * and the Java type corresponding to it is not assignable to the given
+		 * type, data is bound to the type directly. Otherwise, data must be an
+		 * instance of the type. {@link Void} always returns {@code null}.
+		 */
+		Object data(Class<?> type) {
+			if (type == Void.class) {
+				return null;
+			}
+			if (dataStart < 0) {
+				// Read already as it's neither an object nor an array
+				Object data = this.data;
+				if (data != null && !type.isInstance(data)) {
+					throw new ClassCastException("Data of " + fields.get("type") + " event is " + 
+						data.getClass().getName() + " which can't be cast to " + type.getName());
+				}
+				return data;
+			}
+			if (type.isAssignableFrom(dataObject ? LinkedHashMap.class : ArrayList.class)) {
+				return data();
+			}
+			try {
+				return mapper.readValue(text.substring(dataStart, dataEnd), type);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+}
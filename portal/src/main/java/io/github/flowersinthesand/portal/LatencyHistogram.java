@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds whose buckets are powers of two.
+ * <p>
+ * A latency falls in the bucket of the smallest power of two not less than
+ * it, so a percentile is accurate within a factor of two, which is enough to
+ * tell microseconds from milliseconds at a fixed cost of recording. Buckets
+ * are striped like counters of {@link DefaultMetrics}.
+ *
+ * @author Donghwan Kim
+ */
+public final class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray cells = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+
+	/**
+	 * Records the given latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		int bucket = nanos <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1);
+		cells.getAndIncrement(StripedCounter.stripe() * BUCKETS + bucket);
+	}
+
+	private long[] buckets() {
+		long[] buckets = new long[BUCKETS];
+		for (int i = 0; i < cells.length(); i++) {
+			buckets[i % BUCKETS] += cells.get(i);
+		}
+		return buckets;
+	}
+
+	/**
+	 * The number of recorded latencies.
+	 */
+	public long count() {
+		long count = 0;
+		for (long bucket : buckets()) {
+			count += bucket;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the upper bound in nanoseconds of the given percentile between
+	 * 0 and 100 or 0 if nothing is recorded.
+	 */
+	public long percentile(double percentile) {
+		long[] buckets = buckets();
+		long count = 0;
+		for (long bucket : buckets) {
+			count += bucket;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0) {
+				return i == 63 ? Long.MAX_VALUE : 1L << i;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+/**
+ * Receives measurements of a {@link DefaultServer}.
+ * <p>
+ * Methods are called on I/O threads and threads sending events, so an
+ * implementation must be thread-safe and should return quickly. Rates like
+ * sockets opened per second are supposed to be derived by sampling counters
+ * periodically. A transport is identified by the value of the
+ * {@code transport} parameter like {@code ws} and {@code sse}.
+ *
+ * @author Donghwan Kim
+ * @see DefaultMetrics
+ */
+public interface Metrics {
+
+	/**
+	 * Called when a socket is opened.
+	 */
+	void socketOpened(String transport);
+
+	/**
+	 * Called when a new socket is rejected by admission control of
+	 * {@link DefaultServer}.
+	 */
+	void socketRejected(String transport);
+
+	/**
+	 * Called when a socket is closed.
+	 */
+	void socketClosed(String transport);
+
+	/**
+	 * Called when an event is received in a message of the given size in
+	 * bytes encoded in UTF-8.
+	 */
+	void eventReceived(String transport, int bytes);
+
+	/**
+	 * Called when an event is handed over to the transport with the
+	 * nanoseconds elapsed since it was sent by {@link Socket}, which includes
+	 * time spent in queue in asynchronous send mode.
+	 */
+	void eventSent(String transport, long latency);
+
+	/**
+	 * Called when the transport writes the given number of bytes encoded in
+	 * UTF-8 to the connection. It includes framing and padding the transport
+	 * adds and may carry several events.
+	 */
+	void bytesWritten(String transport, int bytes);
+
+	/**
+	 * Called when the number of messages kept in buffers of long polling
+	 * sockets changes by the given delta.
+	 */
+	void longpollBufferChanged(int delta);
+
+	/**
+	 * Called when the number of reply callbacks waiting for the counterpart
+	 * changes by the given delta.
+	 */
+	void pendingRepliesChanged(int delta);
+
+	/**
+	 * Called when a socket is closed as its heartbeat timed out.
+	 */
+	void heartbeatTimedOut(String transport);
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+/**
+ * What to do when a message is sent to a socket that already has as many
+ * pending messages as allowed.
+ * 
+ * @author Donghwan Kim
+ * @see DefaultServer#outboundLimit(int, long, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Discards the oldest pending messages to make room for the new one.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Discards the new message.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Discards the new message and closes the socket.
+	 */
+	DISCONNECT,
+
+	/**
+	 * Replaces a pending message of the same event type with the new one
+	 * since only the latest one matters. If there is no such message, works
+	 * like {@link OverflowPolicy#DROP_OLDEST}. Messages are conflated by event
+	 * type only, so events of one type carrying updates of different things,
+	 * e.g. prices of different stocks, should not be sent with this policy as
+	 * an update of one may replace that of another.
+	 */
+	CONFLATE
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limiter allowing the given number of permits per period, all of
+ * which may be taken at once.
+ * <p>
+ * It keeps only the time when the next permit would be available if permits
+ * were taken evenly, and a permit is refused if that time is ahead of now by
+ * more than a period. So it's lock-free and never blocks.
+ *
+ * @author Donghwan Kim
+ */
+final class RateLimiter {
+
+	// Nanoseconds per permit
+	private final long interval;
+	private final long tolerance;
+	private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+	RateLimiter(int permits, long period, TimeUnit unit) {
+		if (permits <= 0) {
+			throw new IllegalArgumentException("Permits should be positive: " + permits);
+		}
+		this.interval = Math.max(1, unit.toNanos(period) / permits);
+		this.tolerance = interval * (permits - 1);
+	}
+
+	boolean tryAcquire() {
+		long now = System.nanoTime();
+		for (;;) {
+			long current = next.get();
+			long start = current - now > 0 ? current : now;
+			if (start - now > tolerance) {
+				return false;
+			}
+			if (next.compareAndSet(current, start + interval)) {
+				return true;
+			}
+		}
+	}
+
+}
@@ -47,6 +47,12 @@ public class Sentence implements AbstractSocket<Sentence> {
 		return this;
 	}
 
+	@Override
+	public Sentence sendRaw(String event, String json) {
+		execute(new RawSendAction(event, json));
+		return this;
+	}
+
 	@Override
 	public Sentence close() {
 		execute(new CloseAction());
@@ -87,6 +93,22 @@ public class Sentence implements AbstractSocket<Sentence> {
 		}
 	}
 
+	static class RawSendAction implements SerializableAction<Socket> {
+		private static final long serialVersionUID = -3562541815064470113L;
+		final String event;
+		final String json;
+
+		RawSendAction(String event, String json) {
+			this.event = event;
+			this.json = json;
+		}
+
+		@Override
+		public void on(Socket socket) {
+			socket.sendRaw(event, json);
+		}
+	}
+
 	static class CloseAction implements SerializableAction<Socket> {
 		private static final long serialVersionUID = 8154281469036373698L;
 
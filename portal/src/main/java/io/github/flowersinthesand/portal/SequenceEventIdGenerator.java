@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default implementation of {@link EventIdGenerator} generating a prefix
+ * followed by a sequence number in base 36 like {@code k3v0x9qa-1b2}.
+ * <p>
+ * The prefix is random by default and identifies the node. Each thread
+ * reserves a block of sequence numbers at once and takes numbers from it
+ * without synchronization, so generating an id involves neither contention
+ * between threads nor a random number generator. Ids are unique as long as
+ * prefixes are unique but not in order across threads. For short-lived
+ * threads like virtual threads, see
+ * {@link SequenceEventIdGenerator#threadBlocks(boolean)}.
+ * 
+ * @author Donghwan Kim
+ */
+public class SequenceEventIdGenerator implements EventIdGenerator {
+
+	private static final int BLOCK_SIZE = 1024;
+
+	private final String prefix;
+	// The next number not reserved yet
+	private final AtomicLong next = new AtomicLong();
+	private volatile boolean threadBlocks = true;
+	private final ThreadLocal<long[]> block = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			// Next number and the end of the block
+			return new long[2];
+		}
+	};
+
+	/**
+	 * Creates a generator with a random prefix.
+	 */
+	public SequenceEventIdGenerator() {
+		this(Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36));
+	}
+
+	/**
+	 * Creates a generator with the given prefix which should be unique in the
+	 * cluster.
+	 */
+	public SequenceEventIdGenerator(String prefix) {
+		this.prefix = prefix + "-";
+	}
+
+	/**
+	 * Sets whether each thread reserves a block of sequence numbers. If
+	 * disabled, every id takes a number from a counter shared by threads,
+	 * which should be done if threads are created per task like virtual
+	 * threads since a block is wasted with every thread otherwise. Enabled by
+	 * default.
+	 */
+	public SequenceEventIdGenerator threadBlocks(boolean enabled) {
+		this.threadBlocks = enabled;
+		return this;
+	}
+
+	@Override
+	public String generate() {
+		if (!threadBlocks) {
+			return prefix.concat(Long.toString(next.getAndIncrement(), 36));
+		}
+		long[] block = this.block.get();
+		if (block[0] == block[1]) {
+			block[0] = next.getAndAdd(BLOCK_SIZE);
+			block[1] = block[0] + BLOCK_SIZE;
+		}
+		return prefix.concat(Long.toString(block[0]++, 36));
+	}
+
+}
@@ -92,6 +92,11 @@ public interface Socket extends AbstractSocket<Socket> {
 	 * </table>
 	 * 
 	 * If the counterpart sends an event with callback, {@code T} should be {@link Reply}.
+	 * <p>
+	 * With {@link JacksonEventCodec}, {@code T} may also be any other type
+	 * Jackson can bind to, then data is bound to it directly. Note that
+	 * {@code T} is read from the class of the handler so it should be a
+	 * concrete type argument like that of an anonymous class.
 	 */
 	<T> Socket on(String event, Action<T> action);
 
@@ -107,6 +112,16 @@ public interface Socket extends AbstractSocket<Socket> {
 	 */
 	<T> Socket send(String event, Object data, Action<T> reply);
 
+	/**
+	 * Sends a given event with data registering callback and failure callback.
+	 * The failure callback is called if the reply callback is discarded
+	 * without being called, because no reply has arrived within the reply
+	 * timeout or the socket has been closed.
+	 * <p>
+	 * For the allowed types for {@code T}, see {@link Socket#on(String, Action)}. 
+	 */
+	<T> Socket send(String event, Object data, Action<T> reply, Action<Throwable> failure);
+
 	/**
 	 * Interface to deal with reply.
 	 * <p>
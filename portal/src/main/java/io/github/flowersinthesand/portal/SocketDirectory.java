@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+/**
+ * Interface used to find which node in cluster a socket is connected to.
+ * <p>
+ * {@link ClusteredServer} puts an entry when a socket is opened and removes it
+ * when the socket is closed. To be useful, all the nodes in cluster should
+ * share the same store like a distributed cache. Implementations may be
+ * accessed by multiple threads and should be thread-safe.
+ * 
+ * @author Donghwan Kim
+ * @see ClusteredServer#socketDirectory(SocketDirectory)
+ * @see InMemorySocketDirectory
+ */
+public interface SocketDirectory {
+
+	/**
+	 * Records that the socket of the given id is connected to the given node.
+	 */
+	void put(String socketId, String nodeId);
+
+	/**
+	 * Removes the record only if the socket of the given id is still recorded
+	 * to be connected to the given node.
+	 */
+	void remove(String socketId, String nodeId);
+
+	/**
+	 * Returns the id of the node the socket of the given id is connected to or
+	 * {@code null} if it's unknown.
+	 */
+	String get(String socketId);
+
+}
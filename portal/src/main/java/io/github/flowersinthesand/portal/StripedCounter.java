@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading updates over several cells to reduce contention among
+ * threads. A thread always updates the same cell chosen by its id and the
+ * value is the sum of cells.
+ *
+ * @author Donghwan Kim
+ */
+final class StripedCounter {
+
+	static final int STRIPES = stripes();
+	// Cells are 8 longs apart so that they don't share a cache line
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	private static int stripes() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors() * 2, 64);
+		int stripes = 1;
+		while (stripes < processors) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	/**
+	 * Returns the stripe of the current thread.
+	 */
+	static int stripe() {
+		return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+	}
+
+	void increment() {
+		add(1);
+	}
+
+	void add(long delta) {
+		cells.getAndAdd(stripe() * PADDING, delta);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+}
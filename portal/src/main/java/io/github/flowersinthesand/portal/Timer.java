@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interface used to schedule delayed tasks like heartbeat timeouts.
+ * <p>
+ * Tasks are supposed to be short as they may run on the thread of the
+ * timer. A single instance is shared by all of the socket in a
+ * {@link DefaultServer} so it may be accessed by multiple threads and should
+ * be thread-safe.
+ * 
+ * @author Donghwan Kim
+ * @see HashedWheelTimer
+ */
+public interface Timer {
+
+	/**
+	 * Schedules the given task to be executed once after the given delay.
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+	/**
+	 * A handle of a scheduled task.
+	 * 
+	 * @author Donghwan Kim
+	 */
+	interface Timeout {
+
+		/**
+		 * Cancels the task. Returns {@code false} if it has already been
+		 * executed or cancelled.
+		 */
+		boolean cancel();
+
+		/**
+		 * Returns {@code true} if the task has been cancelled.
+		 */
+		boolean isCancelled();
+
+		/**
+		 * Returns {@code true} if the task has been executed.
+		 */
+		boolean isExpired();
+
+	}
+
+}
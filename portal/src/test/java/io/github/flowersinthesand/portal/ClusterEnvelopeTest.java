@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * @author Donghwan Kim
+ */
+public class ClusterEnvelopeTest {
+
+	private final EventCodec codec = new JacksonEventCodec();
+
+	@Test
+	public void send() {
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("a", 1);
+		data.put("b", Arrays.asList("x", "y"));
+		ClusterEnvelope envelope = roundTrip(null, "all", new Sentence.SendAction("message", data));
+		assertThat(envelope.nodes, nullValue());
+		assertThat(envelope.method, is("all"));
+		// JSON written by Jackson is spliced as it is
+		Sentence.RawSendAction action = (Sentence.RawSendAction) envelope.args[0];
+		assertThat(action.event, is("message"));
+		assertThat(action.json, is("{\"a\":1,\"b\":[\"x\",\"y\"]}"));
+	}
+
+	@Test
+	public void sendWithoutSplicing() {
+		byte[] bytes = ClusterEnvelope.encode(null, "all", 
+			new Object[] { new Sentence.SendAction("message", Arrays.asList(1, 2)) }, codec);
+		// The receiving server doesn't write events with the default codec
+		Sentence.SendAction action = (Sentence.SendAction) ClusterEnvelope.decode(bytes, codec, false).args[0];
+		assertThat(action.event, is("message"));
+		assertThat(action.data, is((Object) Arrays.asList(1, 2)));
+	}
+
+	@Test
+	public void sendWithOtherJson() {
+		EventCodec codec = new JacksonEventCodec(new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT));
+		byte[] bytes = ClusterEnvelope.encode(null, "all", 
+			new Object[] { new Sentence.SendAction("message", "data") }, codec);
+		Sentence.SendAction action = (Sentence.SendAction) ClusterEnvelope.decode(bytes, codec, true).args[0];
+		assertThat(action.event, is("message"));
+		assertThat(action.data, is((Object) "data"));
+	}
+
+	@Test
+	public void rawSend() {
+		ClusterEnvelope envelope = roundTrip(null, "all", new Sentence.RawSendAction("message", "[1,\n2]"));
+		Sentence.RawSendAction action = (Sentence.RawSendAction) envelope.args[0];
+		assertThat(action.event, is("message"));
+		assertThat(action.json, is("[1,\n2]"));
+	}
+
+	@Test
+	public void close() {
+		ClusterEnvelope envelope = roundTrip(new String[] { "n1" }, "byId", "socket-1", new Sentence.CloseAction());
+		assertArrayEquals(new String[] { "n1" }, envelope.nodes);
+		assertThat(envelope.method, is("byId"));
+		assertThat(envelope.args[0], is((Object) "socket-1"));
+		assertThat(envelope.args[1], instanceOf(Sentence.CloseAction.class));
+	}
+
+	@Test
+	public void tag() {
+		ClusterEnvelope envelope = roundTrip(new String[] { "n2", "n3" }, "byTag", 
+			new String[] { "a", "b" }, new Sentence.TagAction(new String[] { "c", "d" }));
+		assertArrayEquals(new String[] { "n2", "n3" }, envelope.nodes);
+		assertThat(envelope.method, is("byTag"));
+		assertArrayEquals(new String[] { "a", "b" }, (String[]) envelope.args[0]);
+		assertArrayEquals(new String[] { "c", "d" }, ((Sentence.TagAction) envelope.args[1]).names);
+	}
+
+	@Test
+	public void untag() {
+		ClusterEnvelope envelope = roundTrip(null, "byTag", 
+			new String[] { "a" }, new Sentence.UntagAction(new String[] { "c" }));
+		assertArrayEquals(new String[] { "c" }, ((Sentence.UntagAction) envelope.args[1]).names);
+	}
+
+	@Test
+	public void summary() {
+		long[] bits = new CountingBloomFilter().toBits();
+		bits[0] = -1L;
+		bits[bits.length - 1] = 1L;
+		ClusterEnvelope envelope = roundTrip(null, "summary", "n1", 42L, bits);
+		assertThat(envelope.method, is("summary"));
+		assertThat(envelope.args[0], is((Object) "n1"));
+		assertThat(envelope.args[1], is((Object) 42L));
+		assertArrayEquals(bits, (long[]) envelope.args[2]);
+	}
+
+	@Test
+	public void batch() {
+		byte[][] messages = {
+			ClusterEnvelope.encode(null, "all", new Object[] { new Sentence.CloseAction() }, codec),
+			ClusterEnvelope.encode(new String[] { "n2" }, "byId", 
+				new Object[] { "socket-1", new Sentence.RawSendAction("message", "true") }, codec) };
+		byte[] bytes = ClusterEnvelope.encodeBatch(new String[] { "n1", "n2" }, messages);
+		assertArrayEquals(new String[] { "n1", "n2" }, ClusterEnvelope.nodes(bytes));
+		ClusterEnvelope envelope = ClusterEnvelope.decode(bytes, codec, true);
+		assertThat(envelope.method, is("batch"));
+		ClusterEnvelope[] envelopes = (ClusterEnvelope[]) envelope.args;
+		assertThat(envelopes.length, is(2));
+		assertThat(envelopes[0].method, is("all"));
+		assertThat(envelopes[0].args[0], instanceOf(Sentence.CloseAction.class));
+		assertThat(envelopes[1].method, is("byId"));
+		assertArrayEquals(new String[] { "n2" }, envelopes[1].nodes);
+		assertThat(((Sentence.RawSendAction) envelopes[1].args[1]).json, is("true"));
+	}
+
+	@Test
+	public void serialized() {
+		ClusterEnvelope envelope = roundTrip(null, "all", new CustomAction("custom"));
+		assertThat(((CustomAction) envelope.args[0]).value, is("custom"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedVersion() {
+		byte[] bytes = ClusterEnvelope.encode(null, "all", new Object[] { new Sentence.CloseAction() }, codec);
+		bytes[0] = ClusterEnvelope.VERSION + 1;
+		ClusterEnvelope.decode(bytes, codec, true);
+	}
+
+	private ClusterEnvelope roundTrip(String[] nodes, String method, Object... args) {
+		byte[] bytes = ClusterEnvelope.encode(nodes, method, args, codec);
+		return ClusterEnvelope.decode(bytes, codec, true);
+	}
+
+	static class CustomAction implements Sentence.SerializableAction<Socket> {
+		private static final long serialVersionUID = 1L;
+		final String value;
+
+		CustomAction(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public void on(Socket socket) {}
+	}
+
+}
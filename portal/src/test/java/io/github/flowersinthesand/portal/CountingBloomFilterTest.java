@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * @author Donghwan Kim
+ */
+public class CountingBloomFilterTest {
+
+	@Test
+	public void addAndRemove() {
+		CountingBloomFilter filter = new CountingBloomFilter();
+		assertThat(filter.mightContain("a"), is(false));
+		filter.add("a");
+		assertThat(filter.mightContain("a"), is(true));
+		filter.remove("a");
+		assertThat(filter.mightContain("a"), is(false));
+	}
+
+	@Test
+	public void counting() {
+		CountingBloomFilter filter = new CountingBloomFilter();
+		assertThat(filter.add("a"), is(true));
+		assertThat(filter.add("a"), is(false));
+		filter.remove("a");
+		assertThat(filter.mightContain("a"), is(true));
+		filter.remove("a");
+		assertThat(filter.mightContain("a"), is(false));
+	}
+
+	@Test
+	public void noFalseNegatives() {
+		CountingBloomFilter filter = new CountingBloomFilter();
+		for (int i = 0; i < 1000; i++) {
+			filter.add("tag-" + i);
+		}
+		long[] bits = filter.toBits();
+		for (int i = 0; i < 1000; i++) {
+			assertThat(filter.mightContain("tag-" + i), is(true));
+			assertThat(CountingBloomFilter.mightContain(bits, "tag-" + i), is(true));
+		}
+	}
+
+	@Test
+	public void bits() {
+		CountingBloomFilter filter = new CountingBloomFilter();
+		assertThat(CountingBloomFilter.mightContain(filter.toBits(), "a"), is(false));
+		filter.add("a");
+		assertThat(CountingBloomFilter.mightContain(filter.toBits(), "a"), is(true));
+		filter.remove("a");
+		assertThat(CountingBloomFilter.mightContain(filter.toBits(), "a"), is(false));
+	}
+
+}
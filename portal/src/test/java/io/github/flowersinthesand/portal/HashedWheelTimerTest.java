@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Donghwan Kim
+ */
+public class HashedWheelTimerTest {
+
+	// A small wheel makes long delays take several rounds
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 4);
+
+	@After
+	public void stop() {
+		timer.stop();
+	}
+
+	@Test
+	public void schedule() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertThat(timeout.isExpired(), is(true));
+		assertThat(timeout.cancel(), is(false));
+	}
+
+	@Test
+	public void order() throws InterruptedException {
+		final List<Integer> executed = new CopyOnWriteArrayList<>();
+		final CountDownLatch latch = new CountDownLatch(3);
+		for (final int delay : new int[] { 150, 20, 70 }) {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					executed.add(delay);
+					latch.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertThat(executed.toString(), is("[20, 70, 150]"));
+	}
+
+	@Test
+	public void cancel() throws InterruptedException {
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		final CountDownLatch latch = new CountDownLatch(1);
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				cancelled.countDown();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		assertThat(timeout.cancel(), is(true));
+		assertThat(timeout.isCancelled(), is(true));
+		assertThat(timeout.cancel(), is(false));
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 60, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertThat(cancelled.getCount(), is(1L));
+		assertThat(timeout.isExpired(), is(false));
+	}
+
+	@Test
+	public void exception() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw new RuntimeException("expected");
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 30, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void stopped() {
+		timer.stop();
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {}
+		}, 10, TimeUnit.MILLISECONDS);
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Donghwan Kim
+ */
+public class JacksonEventCodecTest {
+
+	private final JacksonEventCodec codec = new JacksonEventCodec();
+
+	@Test
+	public void bindObject() {
+		JacksonEventCodec.LazyEvent event = event("{\"id\":\"1\",\"type\":\"point\",\"data\":{\"x\":1,\"y\":2},\"reply\":false}");
+		Point point = (Point) event.data(Point.class);
+		assertThat(point.x, is(1));
+		assertThat(point.y, is(2));
+		assertThat(((Map<?, ?>) event.data(Map.class)).get("x"), is((Object) 1));
+	}
+
+	@Test
+	public void bindArray() {
+		JacksonEventCodec.LazyEvent event = event("{\"id\":\"1\",\"type\":\"numbers\",\"data\":[1,2],\"reply\":false}");
+		assertThat(event.data(Object.class), is((Object) Arrays.asList(1, 2)));
+		assertThat(((int[]) event.data(int[].class)).length, is(2));
+	}
+
+	@Test
+	public void scalar() {
+		JacksonEventCodec.LazyEvent event = event("{\"id\":\"1\",\"type\":\"message\",\"data\":\"5\",\"reply\":false}");
+		assertThat(event.data(String.class), is((Object) "5"));
+		assertThat(event.data(Object.class), is((Object) "5"));
+		assertThat(event.data(Void.class), nullValue());
+	}
+
+	@Test
+	public void scalarOfOtherType() {
+		JacksonEventCodec.LazyEvent event = event("{\"id\":\"1\",\"type\":\"message\",\"data\":\"5\",\"reply\":false}");
+		try {
+			event.data(Integer.class);
+			fail();
+		} catch (ClassCastException e) {
+			assertThat(e.getMessage(), containsString("message"));
+			assertThat(e.getMessage(), containsString(Integer.class.getName()));
+		}
+	}
+
+	@Test
+	public void nullData() {
+		JacksonEventCodec.LazyEvent event = event("{\"id\":\"1\",\"type\":\"message\",\"data\":null,\"reply\":false}");
+		assertThat(event.data(Integer.class), nullValue());
+	}
+
+	@Test
+	public void isValue() {
+		assertThat(codec.isValue("{\"a\":[1,2]}"), is(true));
+		assertThat(codec.isValue(" \"text\" "), is(true));
+		assertThat(codec.isValue("null"), is(true));
+		assertThat(codec.isValue(""), is(false));
+		assertThat(codec.isValue("{\"a\":"), is(false));
+		assertThat(codec.isValue("1,\"b\":2"), is(false));
+		assertThat(codec.isValue("1}{\"b\":2"), is(false));
+	}
+
+	private JacksonEventCodec.LazyEvent event(String text) {
+		return (JacksonEventCodec.LazyEvent) codec.decodeLazily(text);
+	}
+
+	public static class Point {
+		public int x;
+		public int y;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2014 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.flowersinthesand.portal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Donghwan Kim
+ */
+public class QueryTest {
+
+	@Test
+	public void parameters() {
+		Map<String, String> query = new DefaultServer.Query("/portal?when=open&transport=ws&id=1");
+		assertThat(query.size(), is(3));
+		assertThat(query.get("when"), is("open"));
+		assertThat(query.get("transport"), is("ws"));
+		assertThat(query.get("id"), is("1"));
+		assertThat(query.get("heartbeat"), nullValue());
+		assertThat(query.containsKey("id"), is(true));
+		assertThat(query.containsKey("heartbeat"), is(false));
+	}
+
+	@Test
+	public void noParameters() {
+		assertThat(new DefaultServer.Query("/portal").isEmpty(), is(true));
+		assertThat(new DefaultServer.Query("/portal?").isEmpty(), is(true));
+		assertThat(new DefaultServer.Query("/portal?#a=b").isEmpty(), is(true));
+	}
+
+	@Test
+	public void decoding() {
+		Map<String, String> query = new DefaultServer.Query("/portal?callback=a%2Eb&data=x+y%20z&plain=abc");
+		assertThat(query.get("callback"), is("a.b"));
+		assertThat(query.get("data"), is("x y z"));
+		assertThat(query.get("plain"), is("abc"));
+	}
+
+	@Test
+	public void emptyAndMissingValues() {
+		Map<String, String> query = new DefaultServer.Query("/portal?a=&b&=c&&d=1");
+		assertThat(query.size(), is(3));
+		assertThat(query.get("a"), is(""));
+		assertThat(query.get("b"), is(""));
+		assertThat(query.get("d"), is("1"));
+		assertThat(query.containsKey(""), is(false));
+	}
+
+	@Test
+	public void fragment() {
+		Map<String, String> query = new DefaultServer.Query("/portal?a=1&b=2#c=3");
+		assertThat(query.size(), is(2));
+		assertThat(query.get("b"), is("2"));
+		assertThat(query.get("c"), nullValue());
+	}
+
+	@Test
+	public void repeatedName() {
+		Map<String, String> query = new DefaultServer.Query("/portal?a=1&b=2&a=3");
+		assertThat(query.get("a"), is("3"));
+		assertThat(query.size(), is(2));
+		Map<String, String> expected = new HashMap<>();
+		expected.put("a", "3");
+		expected.put("b", "2");
+		assertThat(query, is(expected));
+		assertThat(query.entrySet().size(), is(2));
+	}
+
+	@Test
+	public void entries() {
+		Iterator<Map.Entry<String, String>> iterator = 
+			new DefaultServer.Query("/portal?when=poll&lastEventIds=1%2C2").entrySet().iterator();
+		Map.Entry<String, String> entry = iterator.next();
+		assertThat(entry.getKey(), is("when"));
+		assertThat(entry.getValue(), is("poll"));
+		entry = iterator.next();
+		assertThat(entry.getKey(), is("lastEventIds"));
+		assertThat(entry.getValue(), is("1,2"));
+		assertThat(iterator.hasNext(), is(false));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void unmodifiable() {
+		new DefaultServer.Query("/portal?a=1").put("b", "2");
+	}
+
+}